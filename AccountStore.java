@@ -0,0 +1,90 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// The accounts, safe to use from any number of threads. Lookups go straight to a
+// ConcurrentHashMap; changes to an account run under that account's own lock, so operations
+// on different accounts proceed in parallel and only operations on the same account queue up.
+//
+// Snapshots need every account at one point in time. Updates therefore also hold the shared
+// side of an image lock, and exclusive() takes the other side to wait for in-flight updates
+// and hold new ones back while the image is taken.
+class AccountStore {
+    private final ConcurrentHashMap<String, User> accounts = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock imageLock = new ReentrantReadWriteLock();
+
+    public User get(String username) {
+        return accounts.get(username);
+    }
+
+    public boolean contains(String username) {
+        return accounts.containsKey(username);
+    }
+
+    // Returns false if the username is already taken
+    public boolean add(User u) {
+        return accounts.putIfAbsent(u.username, u) == null;
+    }
+
+    public User remove(String username) {
+        return accounts.remove(username);
+    }
+
+    public Collection<User> values() {
+        return accounts.values();
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+
+    public void clear() {
+        accounts.clear();
+    }
+
+    // Direct access for the loaders, which fill the store before any other thread uses it
+    public Map<String, User> map() {
+        return accounts;
+    }
+
+    // Runs op with u locked. Everything that reads and then changes an account (limit and
+    // balance checks included) belongs inside op.
+    public <T> T update(User u, Supplier<T> op) {
+        imageLock.readLock().lock();
+        u.lock.lock();
+        try {
+            return op.get();
+        } finally {
+            u.lock.unlock();
+            imageLock.readLock().unlock();
+        }
+    }
+
+    // Runs op with both accounts locked. Locks are always taken in username order, so two
+    // transfers between the same accounts in opposite directions cannot deadlock.
+    public <T> T update(User a, User b, Supplier<T> op) {
+        User first = a.username.compareTo(b.username) <= 0 ? a : b;
+        User second = first == a ? b : a;
+        imageLock.readLock().lock();
+        first.lock.lock();
+        second.lock.lock();
+        try {
+            return op.get();
+        } finally {
+            second.lock.unlock();
+            first.lock.unlock();
+            imageLock.readLock().unlock();
+        }
+    }
+
+    // Runs op while no account is being changed
+    public <T> T exclusive(Supplier<T> op) {
+        imageLock.writeLock().lock();
+        try {
+            return op.get();
+        } finally {
+            imageLock.writeLock().unlock();
+        }
+    }
+}
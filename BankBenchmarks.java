@@ -0,0 +1,1311 @@
+import java.io.*;
+import java.util.*;
+
+// Command line measurements for the storage engine. Runs in a scratch directory so the real
+// bank_users.txt is never touched.
+//
+//   java BankBenchmarks recovery [users]
+//   java BankBenchmarks crash [commit window millis]
+//   java BankBenchmarks legacy [bank_users.txt written by the original app]
+//   java BankBenchmarks format [users] [transactions per user]
+//   java BankBenchmarks load [users] [transactions per user]
+//   java BankBenchmarks history [users] [transactions per user]
+//   java BankBenchmarks stress [threads] [accounts] [operations per thread]
+//   java BankBenchmarks server [client threads] [accounts] [seconds]
+//   java BankBenchmarks cards [users] [lookups]
+//   java BankBenchmarks batch [payments] [accounts]
+//   java BankBenchmarks transfer [max threads] [accounts] [hot accounts] [transfers per thread]
+//   java BankBenchmarks interest [accounts]
+//   java BankBenchmarks table [transactions]
+//   java BankBenchmarks columns [transactions]
+//   java BankBenchmarks statement [transactions] [months]
+//   java BankBenchmarks export [accounts] [transactions per account] [transactions in the long history]
+//   java BankBenchmarks metrics [recordings]
+//   java BankBenchmarks login [max threads] [accounts] [seconds per run]
+//
+// Accounts are created by the hundred here, which at the production KDF cost would take
+// minutes, so credentials are hashed at 1000 iterations unless -Dbank.kdf.iterations says
+// otherwise. The login scenario measures the real cost.
+class BankBenchmarks {
+    public static void main(String[] args) throws Exception {
+        String scenario = args.length > 0 ? args[0] : "recovery";
+        File dir = new File("bench_data");
+        dir.mkdirs();
+        if (!scenario.equals("login") && System.getProperty("bank.kdf.iterations") == null)
+            System.setProperty("bank.kdf.iterations", "1000");
+
+        switch (scenario) {
+            case "recovery":
+                recovery(dir, args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+                break;
+            case "crash":
+                crash(dir, args.length > 1 ? Long.parseLong(args[1]) : 1000);
+                break;
+            case "crash-child":
+                crashChild(new File(args[1]));
+                break;
+            case "legacy":
+                legacy(dir, new File(args.length > 1 ? args[1] : "fixtures/baseline_bank_users.txt"));
+                break;
+            case "load":
+                load(dir, args.length > 1 ? Integer.parseInt(args[1]) : 1000000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 5);
+                break;
+            case "history":
+                history(dir, args.length > 1 ? Integer.parseInt(args[1]) : 100000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 50);
+                break;
+            case "stress":
+                stress(dir, args.length > 1 ? Integer.parseInt(args[1]) : 8,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 100,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 20000);
+                break;
+            case "server":
+                server(dir, args.length > 1 ? Integer.parseInt(args[1]) : 16,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 100,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 10);
+                break;
+            case "cards":
+                cards(args.length > 1 ? Integer.parseInt(args[1]) : 100000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 1000000);
+                break;
+            case "batch":
+                batch(dir, args.length > 1 ? Integer.parseInt(args[1]) : 20000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 500);
+                break;
+            case "transfer":
+                transfer(dir, args.length > 1 ? Integer.parseInt(args[1]) : 8,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 1000,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 4,
+                        args.length > 4 ? Integer.parseInt(args[4]) : 10000);
+                break;
+            case "interest":
+                interest(dir, args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+                break;
+            case "table":
+                table(dir, args.length > 1 ? Integer.parseInt(args[1]) : 500000);
+                break;
+            case "columns":
+                columns(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+                break;
+            case "statement":
+                statement(args.length > 1 ? Integer.parseInt(args[1]) : 1000000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 36);
+                break;
+            case "export":
+                export(dir, args.length > 1 ? Integer.parseInt(args[1]) : 20000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 50,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 1000000);
+                break;
+            case "metrics":
+                metrics(dir, args.length > 1 ? Integer.parseInt(args[1]) : 10000000);
+                break;
+            case "login":
+                login(dir, args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors(),
+                        args.length > 2 ? Integer.parseInt(args[2]) : 16,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 5);
+                break;
+            case "format":
+                format(dir, args.length > 1 ? Integer.parseInt(args[1]) : 100000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 20);
+                break;
+            default:
+                System.out.println("Unknown scenario: " + scenario);
+        }
+    }
+
+    // ---------------------- RECOVERY TIME ----------------------
+    // Cold-start time (snapshot load + journal replay) against journal length, once with the
+    // whole journal left in place and once after a snapshot compacted it away.
+    static void recovery(File dir, int userCount) throws Exception {
+        System.out.printf("%-12s %-14s %-14s%n", "journal", "replay (ms)", "compacted (ms)");
+        for (int records : new int[] { 0, 1000, 10000, 100000 }) {
+            File snapshot = new File(dir, "recovery_users.dat");
+            File journalFile = new File(dir, "recovery_users.journal");
+            File historyFile = new File(dir, "recovery_history.dat");
+            snapshot.delete();
+            journalFile.delete();
+            historyFile.delete();
+
+            AccountStore accounts = new AccountStore();
+            Map<String, User> users = accounts.map();
+            users.putAll(createUsers(userCount, 0));
+            Journal journal = new Journal(journalFile.getPath());
+            HistoryStore history = new HistoryStore(historyFile.getPath());
+            history.open(0);
+            for (User u : users.values()) {
+                history.attach(u);
+            }
+            Snapshotter snapshotter = new Snapshotter(snapshot.getPath(), snapshot.getPath(), journal, history,
+                    accounts, Snapshotter.Policy.fromSystemProperties());
+            snapshotter.write(snapshotter.capture());
+
+            Random rand = new Random(42);
+            ArrayList<User> all = new ArrayList<>(users.values());
+            for (int i = 0; i < records; i++) {
+                User u = all.get(rand.nextInt(all.size()));
+                u.balance += Money.ofRupees(100);
+                Transaction t = new Transaction("Deposit", Money.ofRupees(100), "Cash Deposit", "");
+                u.addTransaction(t);
+                journal.append(u, t);
+            }
+
+            long replayMillis = timeLoad(snapshot, journalFile, historyFile);
+            snapshotter.write(snapshotter.capture());
+            long compactedMillis = timeLoad(snapshot, journalFile, historyFile);
+            history.close();
+            System.out.printf("%-12d %-14d %-14d%n", records, replayMillis, compactedMillis);
+        }
+    }
+
+    static long timeLoad(File snapshot, File journalFile, File historyFile) throws IOException {
+        HistoryStore history = new HistoryStore(historyFile.getPath());
+        long start = System.nanoTime();
+        new Snapshotter(snapshot.getPath(), snapshot.getPath(), new Journal(journalFile.getPath()), history,
+                new AccountStore(), Snapshotter.Policy.fromSystemProperties()).load();
+        history.close();
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    // ---------------------- CRASH RECOVERY ----------------------
+    // A child JVM makes a deposit and a transfer, waits for both to be durable, makes another
+    // of each and halts before the group commit writer gets to them. After reopening, the
+    // first two must be there on both accounts, balance and history alike, and the last two
+    // must be gone. The halt lands inside the commit window, however long it is; a batch waiting
+    // for its window must not be on disk in any part.
+    //
+    // Then the same files again with the journal cut off inside the transfer, right after the
+    // sender's half: the transfer must be gone from both accounts, and the deposit kept.
+    static void crash(File dir, long windowMillis) throws Exception {
+        File data = new File(dir, "crash");
+        data.mkdirs();
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        engine.addUser("crash", "crash", Money.ofRupees(1000), 0);
+        engine.addUser("payee", "payee", Money.ofRupees(1000), 0);
+        engine.close();
+
+        // The window has to be long enough to keep the last operations queued until the halt
+        Process child = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), "-Dbank.commit.windowMillis=" + windowMillis,
+                "-Dbank.kdf.iterations=" + System.getProperty("bank.kdf.iterations"),
+                "BankBenchmarks", "crash-child", data.getPath()).inheritIO().start();
+        if (child.waitFor() != 3) {
+            System.out.println("FAILED: child exited with " + child.exitValue());
+            return;
+        }
+        File copy = new File(dir, "crash_copy");
+        copy.mkdirs();
+        for (File f : copy.listFiles()) {
+            f.delete();
+        }
+        for (File f : data.listFiles()) {
+            java.nio.file.Files.copy(f.toPath(), new File(copy, f.getName()).toPath());
+        }
+
+        boolean ok = reopenAfterCrash(data, 1050, 1050, "Deposit Transfer_Out / Transfer_In");
+
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+        for (File f : copy.listFiles()) {
+            java.nio.file.Files.copy(f.toPath(), new File(data, f.getName()).toPath());
+        }
+        File journal = new File(data, BankEngine.JOURNAL_FILE);
+        byte[] bytes = java.nio.file.Files.readAllBytes(journal.toPath());
+        int tear = new String(bytes, "ISO-8859-1").lastIndexOf(",payee,") + 1;
+        if (tear == 0) {
+            System.out.println("FAILED: no transfer in the journal");
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(tear);
+        }
+        ok &= reopenAfterCrash(data, 1100, 1000, "Deposit / ");
+        System.out.println(ok ? "OK: nothing unacknowledged survived, no transfer survived in part" : "FAILED");
+    }
+
+    // Opens the bank in data and checks the two accounts of the crash scenario
+    static boolean reopenAfterCrash(File data, long balance, long payeeBalance, String expected) {
+        BankEngine reloaded = new BankEngine(data);
+        reloaded.open();
+        User u = reloaded.find("crash");
+        User payee = reloaded.find("payee");
+        String history = types(u) + " / " + types(payee);
+        reloaded.close();
+        boolean ok = u.balance == Money.ofRupees(balance) && payee.balance == Money.ofRupees(payeeBalance)
+                && history.equals(expected);
+        System.out.printf("balances %s / %s, history %s%s%n", Money.format(u.balance), Money.format(payee.balance),
+                history, ok ? "" : String.format("  FAILED: expected %d.00 / %d.00, %s", balance, payeeBalance,
+                        expected));
+        return ok;
+    }
+
+    static String types(User u) {
+        TransactionLog history = u.getTransactionHistory();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < history.size(); i++) {
+            sb.append(i > 0 ? " " : "").append(history.type(i));
+        }
+        return sb.toString();
+    }
+
+    static void crashChild(File data) throws Exception {
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        User u = engine.find("crash");
+        engine.deposit(u, Money.ofRupees(100)).durable.join();
+        engine.transfer(u, "payee", Money.ofRupees(50)).durable.join();
+        engine.deposit(u, Money.ofRupees(1000000));
+        engine.transfer(u, "payee", Money.ofRupees(500));
+        Runtime.getRuntime().halt(3);
+    }
+
+    // ---------------------- LEGACY TEXT FILES ----------------------
+    // Opens a bank whose only file is a bank_users.txt as the original app wrote it (the fixture
+    // is three accounts saved by its User.toString()), reopens it from the snapshot that made,
+    // and then checks that one bad line stops the conversion before anything is written.
+    static void legacy(File dir, File fixture) throws Exception {
+        File data = new File(dir, "legacy");
+        data.mkdirs();
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+        File text = new File(data, BankEngine.LEGACY_FILE_NAME);
+        java.nio.file.Files.copy(fixture.toPath(), text.toPath());
+        System.setProperty("bank.interest.checkMinutes", "0"); // keep the histories as written
+
+        String converted = null;
+        for (int pass = 0; pass < 2; pass++) {
+            BankEngine engine = new BankEngine(data);
+            engine.open();
+            User admin = engine.find("admin");
+            User john = engine.find("john");
+            User priya = engine.find("priya");
+            String problem = engine.users().size() != 3 ? engine.users().size() + " accounts"
+                    : !Credentials.verify(admin.debitPIN, "4694") || !Credentials.verify(admin.creditPIN, "1779")
+                            ? "admin's PINs"
+                    : john.balance != Money.ofRupees(9300) + 50 || john.monthlySpent != Money.ofRupees(1200)
+                            ? "john's balance or spending"
+                    : !types(john).equals("Deposit Card_Payment") ? "john's history " + types(john)
+                    : priya.balance != 30 || priya.fdBalance != Money.ofRupees(10000000) ? "priya's balances"
+                    : !john.debitCardNumber.equals("4103 9358 4467 6152") || !john.tapToPayEnabled
+                            ? "john's debit card"
+                    : null;
+            engine.close();
+            if (problem != null) {
+                System.out.println("FAILED: " + problem + (pass == 0 ? " from the text file" : " after reopening"));
+                return;
+            }
+            converted = String.format("3 accounts, john %s with %d transactions", Money.format(john.balance),
+                    john.getTransactionHistory().size());
+        }
+
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+        java.nio.file.Files.write(text.toPath(), (new String(java.nio.file.Files.readAllBytes(fixture.toPath()),
+                "UTF-8") + "carol,secret,100.0\n").getBytes("UTF-8"));
+        try {
+            new BankEngine(data).open();
+            System.out.println("FAILED: a file with a bad line was loaded");
+            return;
+        } catch (IllegalStateException expected) {
+        }
+        if (new File(data, BankEngine.FILE_NAME).exists()) {
+            System.out.println("FAILED: a snapshot was written from a file with a bad line");
+            return;
+        }
+        System.out.println("OK: " + converted + "; a bad line stopped the conversion with nothing written");
+    }
+
+    // ---------------------- CONCURRENCY ----------------------
+    // Threads doing deposits, withdrawals, FD moves and debit card payments on random accounts
+    // through BankEngine while the snapshotter runs. Checks afterwards that every account moved
+    // by exactly what its successful operations say, that no balance or spending limit was
+    // overrun, that every successful operation left one transaction, and that a cold load of
+    // the files gives the same accounts.
+    static void stress(File dir, int threadCount, int accountCount, int opsPerThread) throws Exception {
+        File data = new File(dir, "stress");
+        data.mkdirs();
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+
+        BankEngine engine = new BankEngine(data,
+                new Snapshotter.Policy(threadCount * opsPerThread / 10, Long.MAX_VALUE, 3600));
+        engine.open();
+        User[] all = new User[accountCount];
+        BankEngine.CardPayment[] debitCards = new BankEngine.CardPayment[all.length];
+        long[] initialBalance = new long[all.length];
+        long[] initialFd = new long[all.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = new User("stress" + i, "pass" + i, Money.ofRupees(10000), Money.ofRupees(5000));
+            debitCards[i] = card(all[i], true);
+            engine.addUser(all[i]);
+            initialBalance[i] = all[i].balance;
+            initialFd[i] = all[i].fdBalance;
+        }
+
+        // Per thread: balance and FD change and successful operations, by account
+        long[][] balanceDelta = new long[threadCount][all.length];
+        long[][] fdDelta = new long[threadCount][all.length];
+        int[][] applied = new int[threadCount][all.length];
+        java.util.concurrent.atomic.AtomicLong failedCommits = new java.util.concurrent.atomic.AtomicLong();
+
+        Thread[] threads = new Thread[threadCount];
+        long start = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                Random rand = new Random(id);
+                for (int i = 0; i < opsPerThread; i++) {
+                    int a = rand.nextInt(all.length);
+                    User u = all[a];
+                    int op = rand.nextInt(4);
+                    long amount = 1 + rand.nextInt(100000);
+                    BankEngine.Result r;
+                    switch (op) {
+                        case 0:
+                            r = engine.deposit(u, amount);
+                            break;
+                        case 1:
+                            r = engine.transferToFD(u, amount);
+                            break;
+                        case 2:
+                            r = engine.withdraw(u, amount);
+                            break;
+                        default:
+                            r = engine.payWithCard(u, payment(debitCards[a], debitCards[a].pin, amount));
+                    }
+                    if (r.ok) {
+                        r.durable.whenComplete((lsn, err) -> {
+                            if (err != null)
+                                failedCommits.incrementAndGet();
+                        });
+                        applied[id][a]++;
+                        balanceDelta[id][a] += op == 0 ? amount : -amount;
+                        fdDelta[id][a] += op == 1 ? amount : 0;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        engine.close();
+
+        int errors = 0;
+        long totalOps = 0;
+        for (int a = 0; a < all.length; a++) {
+            User u = all[a];
+            long expectedBalance = initialBalance[a];
+            long expectedFd = initialFd[a];
+            int expectedTx = 0;
+            for (int t = 0; t < threadCount; t++) {
+                expectedBalance += balanceDelta[t][a];
+                expectedFd += fdDelta[t][a];
+                expectedTx += applied[t][a];
+            }
+            totalOps += expectedTx;
+            if (u.balance != expectedBalance || u.fdBalance != expectedFd) {
+                System.out.println(u.username + ": balance " + Money.format(u.balance) + "/" + Money.format(u.fdBalance)
+                        + ", expected " + Money.format(expectedBalance) + "/" + Money.format(expectedFd));
+                errors++;
+            }
+            long today = engine.today();
+            if (u.balance < 0 || u.fdBalance < 0 || u.getDailySpent(today) > u.dailySpendingLimit
+                    || u.getMonthlySpent(today) > u.monthlySpendingLimit) {
+                System.out.println(u.username + ": limit overrun");
+                errors++;
+            }
+            if (u.historyCount != expectedTx) {
+                System.out.println(u.username + ": " + u.historyCount + " transactions, expected " + expectedTx);
+                errors++;
+            }
+        }
+
+        // Everything acknowledged must come back from disk
+        BankEngine reloaded = new BankEngine(data);
+        reloaded.open();
+        for (User u : all) {
+            User r = reloaded.find(u.username);
+            if (r == null || r.balance != u.balance || r.fdBalance != u.fdBalance || r.dailySpent != u.dailySpent
+                    || r.monthlySpent != u.monthlySpent || r.spentDay != u.spentDay
+                    || reloaded.history(r).size() != u.historyCount) {
+                System.out.println(u.username + ": differs after reload");
+                errors++;
+            }
+        }
+        reloaded.close();
+
+        long attempted = (long) threadCount * opsPerThread;
+        System.out.printf("%d threads, %d accounts: %,d of %,d operations applied, %,.0f ops/s%n", threadCount,
+                all.length, totalOps, attempted, attempted / (elapsed / 1e9));
+        System.out.println(errors == 0 && failedCommits.get() == 0 ? "OK: all invariants hold"
+                : "FAILED: " + errors + " invariant violations, " + failedCommits.get() + " failed commits");
+    }
+
+    // ---------------------- HTTP SERVER ----------------------
+    // BankLoadClient against a BankServer on a free local port, with the client threads spread
+    // over fresh accounts
+    static void server(File dir, int threadCount, int accountCount, int seconds) throws Exception {
+        File data = new File(dir, "server");
+        data.mkdirs();
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        ArrayList<String[]> credentials = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++) {
+            engine.addUser("load" + i, "pass" + i, Money.ofRupees(100000), Money.ofRupees(5000));
+            credentials.add(new String[] { "load" + i, "pass" + i });
+        }
+        BankServer server = new BankServer(engine, 0);
+        server.start();
+        try {
+            System.out.println(threadCount + " client threads, " + accountCount + " accounts, " + seconds + " s");
+            new BankLoadClient("http://localhost:" + server.port()).run(threadCount, seconds, credentials).print();
+        } finally {
+            server.stop(0);
+            engine.close();
+        }
+    }
+
+    // ---------------------- CARD LOOKUP ----------------------
+    // Finding the account behind a card number: CardIndex against comparing the normalized
+    // number with every account's cards, as the per-user check did. The scan only gets a
+    // thousandth of the lookups, it is that much slower.
+    static void cards(int userCount, int lookups) {
+        HashMap<String, User> users = createUsers(userCount, 0);
+        long start = System.nanoTime();
+        CardIndex index = new CardIndex();
+        for (User u : users.values()) {
+            index.add(u);
+        }
+        System.out.printf("Indexed %,d cards in %d ms%n", index.size(), (System.nanoTime() - start) / 1_000_000);
+
+        User[] all = users.values().toArray(new User[0]);
+        String[] numbers = new String[4096];
+        Random rand = new Random(3);
+        for (int i = 0; i < numbers.length; i++) {
+            User u = all[rand.nextInt(all.length)];
+            numbers[i] = rand.nextBoolean() ? u.debitCardNumber : u.creditCardNumber;
+        }
+
+        for (int round = 0; round < 3; round++) {
+            int found = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (index.get(numbers[i & (numbers.length - 1)]) != null)
+                    found++;
+            }
+            long indexed = System.nanoTime() - start;
+
+            int scans = Math.max(1, lookups / 1000);
+            start = System.nanoTime();
+            for (int i = 0; i < scans; i++) {
+                String number = numbers[i & (numbers.length - 1)].replaceAll("\\s+", "");
+                for (User u : all) {
+                    if (number.equals(u.debitCardNumber.replaceAll("\\s+", ""))
+                            || number.equals(u.creditCardNumber.replaceAll("\\s+", ""))) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+            long scanned = System.nanoTime() - start;
+            System.out.printf("index %,.0f ns/lookup, scan %,.0f ns/lookup (%d found)%n", (double) indexed / lookups,
+                    (double) scanned / scans, found);
+        }
+    }
+
+    // ---------------------- BATCH AUTHORIZATION ----------------------
+    // The same payments (a few with a wrong PIN, some over the limits) through authorize() one
+    // at a time and through authorizeAll(), each on a fresh bank, until every accepted payment
+    // is durable. Both paths must accept the same payments and end with the same balances.
+    static void batch(File dir, int paymentCount, int accountCount) throws Exception {
+        boolean[][] outcomes = new boolean[2][];
+        long[][] balances = new long[2][];
+        for (int pass = 0; pass < 2; pass++) {
+            File data = new File(dir, "batch");
+            data.mkdirs();
+            for (File f : data.listFiles()) {
+                f.delete();
+            }
+            BankEngine engine = new BankEngine(data);
+            engine.open();
+            User[] all = new User[accountCount];
+            BankEngine.CardPayment[][] cards = new BankEngine.CardPayment[all.length][];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = new User("batch" + i, "pass" + i, Money.ofRupees(200000), 0);
+                cards[i] = new BankEngine.CardPayment[] { card(all[i], true), card(all[i], false) };
+                engine.addUser(all[i]);
+            }
+
+            Random rand = new Random(11);
+            ArrayList<BankEngine.CardPayment> payments = new ArrayList<>();
+            for (int i = 0; i < paymentCount; i++) {
+                BankEngine.CardPayment[] mine = cards[rand.nextInt(all.length)];
+                BankEngine.CardPayment card = mine[rand.nextInt(4) > 0 ? 0 : 1];
+                payments.add(payment(card, rand.nextInt(20) == 0 ? "----" : card.pin,
+                        Money.ofRupees(1 + rand.nextInt(2000))));
+            }
+
+            long start = System.nanoTime();
+            BankEngine.Result[] results;
+            if (pass == 0) {
+                results = new BankEngine.Result[paymentCount];
+                for (int i = 0; i < paymentCount; i++) {
+                    results[i] = engine.authorize(payments.get(i));
+                }
+            } else {
+                results = engine.authorizeAll(payments);
+            }
+            for (BankEngine.Result r : results) {
+                r.durable.join();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            outcomes[pass] = new boolean[paymentCount];
+            int accepted = 0;
+            for (int i = 0; i < paymentCount; i++) {
+                outcomes[pass][i] = results[i].ok;
+                if (results[i].ok)
+                    accepted++;
+            }
+            balances[pass] = new long[accountCount * 2];
+            for (int i = 0; i < all.length; i++) {
+                balances[pass][2 * i] = all[i].balance;
+                balances[pass][2 * i + 1] = all[i].creditUsed;
+            }
+            System.out.printf("%-14s %,d payments (%,d accepted) in %d ms, %,.0f payments/s%n",
+                    pass == 0 ? "one at a time" : "batch", paymentCount, accepted, elapsed / 1_000_000,
+                    paymentCount / (elapsed / 1e9));
+            engine.close();
+        }
+        boolean same = Arrays.equals(outcomes[0], outcomes[1]) && Arrays.equals(balances[0], balances[1]);
+        System.out.println(same ? "OK: same outcomes and balances" : "FAILED: batch and one-at-a-time differ");
+    }
+
+    // ---------------------- TRANSFERS ----------------------
+    // Transfers between random accounts, half of them touching one of a few hot accounts, at
+    // 1, 2, 4 ... maxThreads threads. After each run the money must add up, every account
+    // must have one history record per transfer it took part in, and a reload must agree.
+    static void transfer(File dir, int maxThreads, int accountCount, int hotCount, int perThread) throws Exception {
+        System.out.printf("%-8s %-14s %-10s%n", "threads", "transfers/s", "refused");
+        for (int threadCount = 1; threadCount <= maxThreads; threadCount *= 2) {
+            File data = new File(dir, "transfer");
+            data.mkdirs();
+            for (File f : data.listFiles()) {
+                f.delete();
+            }
+            BankEngine engine = new BankEngine(data,
+                    new Snapshotter.Policy(threadCount * perThread / 4, Long.MAX_VALUE, 3600));
+            engine.open();
+            User[] all = new User[accountCount];
+            for (int i = 0; i < all.length; i++) {
+                engine.addUser("acct" + i, "pass" + i, Money.ofRupees(10000), 0);
+                all[i] = engine.find("acct" + i);
+            }
+            long total = 0;
+            for (User u : engine.users()) {
+                total += u.balance;
+            }
+
+            int[][] involved = new int[threadCount][all.length];
+            long[] refused = new long[threadCount];
+            java.util.concurrent.atomic.AtomicLong failedCommits = new java.util.concurrent.atomic.AtomicLong();
+            Thread[] threads = new Thread[threadCount];
+            long start = System.nanoTime();
+            for (int t = 0; t < threadCount; t++) {
+                int id = t;
+                threads[t] = new Thread(() -> {
+                    Random rand = new Random(id);
+                    for (int i = 0; i < perThread; i++) {
+                        int from = rand.nextBoolean() ? rand.nextInt(hotCount) : rand.nextInt(all.length);
+                        int to = rand.nextBoolean() ? rand.nextInt(hotCount) : rand.nextInt(all.length);
+                        if (from == to)
+                            to = (to + 1) % all.length;
+                        BankEngine.Result r = engine.transfer(all[from], all[to].username,
+                                1 + rand.nextInt(500000));
+                        if (r.ok) {
+                            involved[id][from]++;
+                            involved[id][to]++;
+                            r.durable.whenComplete((lsn, err) -> {
+                                if (err != null)
+                                    failedCommits.incrementAndGet();
+                            });
+                        } else {
+                            refused[id]++;
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - start;
+            engine.close();
+
+            int errors = 0;
+            long sum = 0;
+            long totalRefused = 0;
+            for (int t = 0; t < threadCount; t++) {
+                totalRefused += refused[t];
+            }
+            for (int a = 0; a < all.length; a++) {
+                sum += all[a].balance;
+                int expected = 0;
+                for (int t = 0; t < threadCount; t++) {
+                    expected += involved[t][a];
+                }
+                if (all[a].balance < 0 || all[a].historyCount != expected)
+                    errors++;
+            }
+            for (User u : engine.users()) {
+                if (!u.username.startsWith("acct"))
+                    sum += u.balance;
+            }
+            BankEngine reloaded = new BankEngine(data);
+            reloaded.open();
+            for (User u : all) {
+                User r = reloaded.find(u.username);
+                if (r == null || r.balance != u.balance || r.historyCount != u.historyCount)
+                    errors++;
+            }
+            reloaded.close();
+
+            System.out.printf("%-8d %-14s %-10d%s%n", threadCount,
+                    String.format("%,.0f", threadCount * (double) perThread / (elapsed / 1e9)), totalRefused,
+                    sum == total && errors == 0 && failedCommits.get() == 0 ? ""
+                            : "  FAILED: " + errors + " accounts wrong, " + Money.format(sum - total) + " created, "
+                                    + failedCommits.get() + " failed commits");
+        }
+    }
+
+    // ---------------------- INTEREST ACCRUAL ----------------------
+    // One accrual over every account until durable, then the same period again, which must
+    // credit nothing. The accounts start from a written snapshot, as never credited.
+    static void interest(File dir, int accountCount) throws Exception {
+        File data = new File(dir, "interest");
+        data.mkdirs();
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+        ArrayList<byte[]> records = new ArrayList<>();
+        for (User u : createUsers(accountCount, 0).values()) {
+            records.add(UserCodec.encode(u));
+        }
+        UserCodec.writeSnapshot(new File(data, BankEngine.FILE_NAME), 0, 0, records);
+
+        System.setProperty("bank.interest.checkMinutes", "0");
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        long fdBefore = 0;
+        for (User u : engine.users()) {
+            fdBefore += u.fdBalance;
+        }
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            BankEngine.Result r = engine.accrueInterest(java.time.LocalDate.now(engine.clock));
+            r.durable.join();
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%s in %d ms (%s)%n", r.message, elapsed / 1_000_000, rate(accountCount, elapsed));
+        }
+        long fdAfter = 0;
+        for (User u : engine.users()) {
+            fdAfter += u.fdBalance;
+        }
+        System.out.println("Total interest: " + Money.format(fdAfter - fdBefore));
+        engine.close();
+    }
+
+    // ---------------------- FILE FORMAT ----------------------
+    // Save and load throughput of the legacy text layout against the binary snapshot format
+    static void format(File dir, int userCount, int historyLength) throws Exception {
+        HashMap<String, User> users = createUsers(userCount, historyLength);
+        File text = new File(dir, "format_users.txt");
+        File binary = new File(dir, "format_users.dat");
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(text)))) {
+                for (User u : users.values()) {
+                    pw.println(u.toString());
+                }
+            }
+            long textSave = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ArrayList<byte[]> records = new ArrayList<>(users.size());
+            for (User u : users.values()) {
+                records.add(UserCodec.encode(u));
+            }
+            UserCodec.writeSnapshot(binary, 0, 0, records);
+            long binarySave = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            HashMap<String, User> loaded = new HashMap<>();
+            Snapshotter.readLegacySnapshot(text, loaded);
+            long textLoad = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            loaded = new HashMap<>();
+            UserCodec.readSnapshot(binary, loaded);
+            long binaryLoad = System.nanoTime() - start;
+
+            System.out.printf("round %d: text %,d KB save %s load %s | binary %,d KB save %s load %s%n", round,
+                    text.length() / 1024, rate(userCount, textSave), rate(userCount, textLoad),
+                    binary.length() / 1024, rate(userCount, binarySave), rate(userCount, binaryLoad));
+        }
+    }
+
+    // ---------------------- PARALLEL LOAD ----------------------
+    // Snapshot load time per phase for 1, 2, 4 ... cores, binary and legacy text
+    static void load(File dir, int userCount, int historyLength) throws Exception {
+        File text = new File(dir, "load_users.txt");
+        File binary = new File(dir, "load_users.dat");
+        HashMap<String, User> users = createUsers(userCount, historyLength);
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(text)))) {
+            for (User u : users.values()) {
+                pw.println(u.toString());
+            }
+        }
+        UserCodec.convertLegacy(text, binary);
+        users = null;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(cores, 4); threads *= 2) {
+            for (int round = 0; round < 2; round++) {
+                HashMap<String, User> loaded = new HashMap<>();
+                LoadPhases phases = new LoadPhases();
+                UserCodec.readSnapshot(binary, loaded, threads, phases);
+                System.out.printf("binary %2d threads: %6d ms (%s)%n", threads, phases.totalMillis(), phases);
+
+                loaded = new HashMap<>();
+                phases = new LoadPhases();
+                Snapshotter.readLegacySnapshot(text, loaded, threads, phases);
+                System.out.printf("text   %2d threads: %6d ms (%s)%n", threads, phases.totalMillis(), phases);
+            }
+        }
+        System.out.println("(" + cores + " cores available)");
+    }
+
+    // ---------------------- LAZY HISTORY ----------------------
+    // Heap retained after startup with every history inline against histories left in the
+    // history store, and the cost of the first and repeated reads of one account's history
+    static void history(File dir, int userCount, int historyLength) throws Exception {
+        File inline = new File(dir, "history_inline.dat");
+        File lazy = new File(dir, "history_lazy.dat");
+        File historyFile = new File(dir, "history_store.dat");
+        historyFile.delete();
+
+        HashMap<String, User> users = createUsers(userCount, historyLength);
+        ArrayList<byte[]> records = new ArrayList<>(users.size());
+        for (User u : users.values()) {
+            records.add(UserCodec.encode(u));
+        }
+        UserCodec.writeSnapshot(inline, 0, 0, records);
+
+        HistoryStore store = new HistoryStore(historyFile.getPath());
+        store.open(0);
+        records.clear();
+        for (User u : users.values()) {
+            store.attach(u);
+            records.add(UserCodec.encode(u));
+        }
+        store.force();
+        UserCodec.writeSnapshot(lazy, 0, store.size(), records);
+        store.close();
+        users = null;
+        records = null;
+
+        long before = usedHeap();
+        HashMap<String, User> loaded = new HashMap<>();
+        UserCodec.readSnapshot(inline, loaded);
+        // Printing the size keeps the map reachable while the heap is measured
+        long inlineBytes = usedHeap() - before;
+        System.out.printf("inline: %,d KB retained by %d users%n", inlineBytes / 1024, loaded.size());
+        loaded = null;
+
+        before = usedHeap();
+        loaded = new HashMap<>();
+        UserCodec.Header header = UserCodec.readSnapshot(lazy, loaded);
+        store = new HistoryStore(historyFile.getPath());
+        store.open(header.historyLength);
+        for (User u : loaded.values()) {
+            store.attach(u);
+        }
+        long lazyBytes = usedHeap() - before;
+        System.out.printf("lazy:   %,d KB retained by %d users%n", lazyBytes / 1024, loaded.size());
+        if (inlineBytes <= 0 || lazyBytes <= 0) {
+            System.out.println("FAILED: the heap did not settle, the figures above mean nothing");
+            store.close();
+            return;
+        }
+        System.out.printf("lazy histories retain %.0f%% of the heap inline ones do%n", 100.0 * lazyBytes / inlineBytes);
+
+        User u = loaded.get("user" + (userCount / 2));
+        long start = System.nanoTime();
+        int size = u.getTransactionHistory().size();
+        long first = System.nanoTime() - start;
+        start = System.nanoTime();
+        u.getTransactionHistory();
+        long cached = System.nanoTime() - start;
+        System.out.printf("%d transactions: first read %d us, cached %d us%n", size, first / 1000, cached / 1000);
+        store.close();
+    }
+
+    // ---------------------- HISTORY TABLE ----------------------
+    // Opening the history dialog for one account with a long history: every row copied, sorted
+    // and formatted into a DefaultTableModel, against the paged HistoryTableModel drawing its
+    // first screen and then its last row. Both must show the same rows.
+    static void table(File dir, int transactionCount) throws Exception {
+        File historyFile = new File(dir, "table_history.dat");
+        historyFile.delete();
+        User u = createUsers(1, transactionCount).get("user0");
+        HistoryStore store = new HistoryStore(historyFile.getPath());
+        store.open(0);
+        store.attach(u);
+
+        for (int round = 0; round < 3; round++) {
+            store.evict(u.username);
+            long start = System.nanoTime();
+            ArrayList<Transaction> sorted = new ArrayList<>(store.history(u));
+            sorted.sort((a, b) -> b.date.compareTo(a.date));
+            javax.swing.table.DefaultTableModel full = new javax.swing.table.DefaultTableModel(
+                    new String[] { "Date & Time", "Type", "Amount (₹)", "Description", "Card Type" }, 0);
+            for (Transaction t : sorted) {
+                full.addRow(new Object[] { t.date, t.type, Money.format(t.amount), t.description,
+                        t.cardType.isEmpty() ? "-" : t.cardType });
+            }
+            long copied = System.nanoTime() - start;
+
+            store.evict(u.username);
+            start = System.nanoTime();
+            HistoryTableModel paged = new HistoryTableModel(store.cursor(u));
+            for (int row = 0; row < 25; row++) {
+                for (int column = 0; column < paged.getColumnCount(); column++) {
+                    paged.getValueAt(row, column);
+                }
+            }
+            long firstScreen = System.nanoTime() - start;
+            start = System.nanoTime();
+            paged.getValueAt(paged.getRowCount() - 1, 2);
+            long lastRow = System.nanoTime() - start;
+            System.out.printf("%,d transactions: full model %d ms, paged first screen %d us, last row %d ms%n",
+                    paged.getRowCount(), copied / 1_000_000, firstScreen / 1000, lastRow / 1_000_000);
+        }
+
+        store.evict(u.username);
+        HistoryTableModel paged = new HistoryTableModel(store.cursor(u));
+        TransactionLog history = store.history(u);
+        for (int row = 0; row < history.size(); row++) {
+            Transaction expected = history.get(history.size() - 1 - row);
+            Transaction t = paged.transaction(row);
+            if (t == null || !t.toString().equals(expected.toString())) {
+                System.out.println("MISMATCH at row " + row);
+                store.close();
+                return;
+            }
+        }
+        System.out.println("OK: paged rows match the history, newest first");
+        store.close();
+    }
+
+    // ---------------------- COLUMNAR HISTORY ----------------------
+    // Heap held by the same transactions as Transaction objects and as a TransactionLog, and
+    // the time to total their amounts each way
+    static void columns(int transactionCount) throws Exception {
+        Random rand = new Random(7);
+        String[] types = { "Deposit", "Withdraw", "FD_Transfer", "FD_Withdraw", "Card_Payment" };
+        long millis = System.currentTimeMillis() - transactionCount * 1000L;
+
+        long before = usedHeap();
+        ArrayList<Transaction> objects = new ArrayList<>();
+        for (int i = 0; i < transactionCount; i++) {
+            String type = types[rand.nextInt(types.length)];
+            objects.add(new Transaction(type, rand.nextInt(100000), UserCodec.fromEpochMillis(millis + i * 1000L),
+                    "Synthetic " + type, type.equals("Card_Payment") ? "Debit" : ""));
+        }
+        long objectBytes = usedHeap() - before;
+
+        before = usedHeap();
+        TransactionLog log = new TransactionLog();
+        for (Transaction t : objects) {
+            log.add(t);
+        }
+        objects.trimToSize(); // keeps the list reachable while the log is measured
+        long logBytes = usedHeap() - before;
+        System.out.printf("%,d transactions: objects %,d KB (%d bytes each), log %,d KB (%d bytes each)%n",
+                transactionCount, objectBytes / 1024, objectBytes / transactionCount, logBytes / 1024,
+                logBytes / transactionCount);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long objectTotal = 0;
+            for (Transaction t : objects) {
+                objectTotal += t.amount;
+            }
+            long objectSum = System.nanoTime() - start;
+            start = System.nanoTime();
+            long logTotal = 0;
+            for (int i = 0; i < log.size(); i++) {
+                logTotal += log.amount(i);
+            }
+            long logSum = System.nanoTime() - start;
+            System.out.printf("sum of amounts: objects %d us, log %d us%s%n", objectSum / 1000, logSum / 1000,
+                    objectTotal == logTotal ? "" : " MISMATCH");
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            if (!objects.get(i).toString().equals(log.get(i).toString())) {
+                System.out.println("MISMATCH at " + i + ": " + objects.get(i) + " / " + log.get(i));
+                return;
+            }
+        }
+        System.out.println("OK: the log gives back every transaction");
+    }
+
+    // ---------------------- MONTHLY TOTALS ----------------------
+    // A year's statement for an account with a long history: totalled from the history
+    // against read from the running totals, which must agree, also after a snapshot round trip
+    static void statement(int transactionCount, int monthCount) {
+        Random rand = new Random(7);
+        String[] types = { "Deposit", "Withdraw", "FD_Transfer", "FD_Withdraw", "Card_Payment" };
+        java.time.YearMonth first = java.time.YearMonth.now().minusMonths(monthCount - 1);
+        User u = new User("statement", "pass", Money.ofRupees(10000), 0);
+        for (int i = 0; i < transactionCount; i++) {
+            String type = types[rand.nextInt(types.length)];
+            java.time.YearMonth month = first.plusMonths((long) i * monthCount / transactionCount);
+            String date = String.format("%02d/%02d/%d 12:00:00", 1 + rand.nextInt(month.lengthOfMonth()),
+                    month.getMonthValue(), month.getYear());
+            u.addTransaction(new Transaction(type, 1 + rand.nextInt(100000), date, "Synthetic " + type,
+                    type.equals("Card_Payment") ? (rand.nextBoolean() ? "Debit" : "Credit") : ""));
+        }
+        User reloaded = UserCodec.decode(java.nio.ByteBuffer.wrap(UserCodec.encode(u)));
+        java.time.YearMonth from = java.time.YearMonth.now().minusMonths(11);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            HashMap<String, long[]> scanned = new HashMap<>();
+            TransactionLog history = u.getTransactionHistory();
+            int fromKey = MonthlyTotals.key(from);
+            for (int i = 0; i < history.size(); i++) {
+                int month = MonthlyTotals.monthOf(history.time(i));
+                if (month >= fromKey) {
+                    long[] total = scanned.computeIfAbsent(month + " " + history.type(i) + " " + history.cardType(i),
+                            k -> new long[2]);
+                    total[0]++;
+                    total[1] += history.amount(i);
+                }
+            }
+            long scan = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<MonthlyTotals.Month> months = reloaded.monthlyTotals.between(from, null);
+            long read = System.nanoTime() - start;
+
+            int entries = 0;
+            boolean same = true;
+            for (MonthlyTotals.Month m : months) {
+                for (int e = 0; e < m.entries(); e++) {
+                    long[] total = scanned.get(m.key + " " + m.type(e) + " " + m.cardType(e));
+                    same &= total != null && total[0] == m.count(e) && total[1] == m.sum(e);
+                    entries++;
+                }
+            }
+            same &= entries == scanned.size();
+            System.out.printf("%,d transactions, %d months: scan %d us, totals %d us%s%n", transactionCount,
+                    months.size(), scan / 1000, read / 1000, same ? "" : " MISMATCH");
+        }
+    }
+
+    // ---------------------- STATEMENT EXPORT ----------------------
+    // One account with a long history over three years: its whole statement against last
+    // month's, which must match the monthly totals and come out in date order. Then a
+    // month-end run over many accounts with 1, 2, 4 ... threads.
+    static void export(File dir, int accountCount, int historyLength, int longHistory) throws Exception {
+        File historyFile = new File(dir, "export_history.dat");
+        historyFile.delete();
+        HistoryStore store = new HistoryStore(historyFile.getPath());
+        store.open(0);
+        Random rand = new Random(7);
+        String[] types = { "Deposit", "Withdraw", "FD_Transfer", "FD_Withdraw", "Card_Payment" };
+        java.time.LocalDateTime first = java.time.LocalDate.now().withDayOfMonth(1).minusMonths(35).atStartOfDay();
+        long span = java.time.Duration.between(first, java.time.LocalDateTime.now()).getSeconds();
+        User u = new User("export", "pass", Money.ofRupees(10000), 0);
+        store.attach(u);
+        ArrayList<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < longHistory; i++) {
+            String type = types[rand.nextInt(types.length)];
+            String date = UserCodec.fromEpochMillis(first.plusSeconds(span * i / longHistory)
+                    .atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli());
+            batch.add(new Transaction(type, 1 + rand.nextInt(100000), date, "Synthetic, " + type, ""));
+            if (batch.size() == 10000 || i == longHistory - 1) {
+                store.appendAll(Collections.nCopies(batch.size(), u), batch);
+                batch.clear();
+            }
+        }
+        java.time.LocalDate from = java.time.LocalDate.now().withDayOfMonth(1).minusMonths(1);
+        java.time.LocalDate to = from.plusMonths(1).minusDays(1);
+        int expected = 0;
+        for (MonthlyTotals.Month m : u.monthlyTotals.between(java.time.YearMonth.from(from),
+                java.time.YearMonth.from(from))) {
+            expected += m.count();
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int all = StatementExporter.write(u.username, store.scan(u), null, null, Writer.nullWriter());
+            long whole = System.nanoTime() - start;
+            start = System.nanoTime();
+            StringWriter month = new StringWriter();
+            int rows = StatementExporter.write(u.username, store.scan(u), from, to, month);
+            long lastMonth = System.nanoTime() - start;
+
+            String previous = null;
+            boolean ordered = true;
+            String[] lines = month.toString().split("\n");
+            for (int i = 2; i < lines.length - 1; i++) {
+                String date = lines[i].substring(6, 10) + lines[i].substring(3, 5) + lines[i].substring(0, 2)
+                        + lines[i].substring(11, 19);
+                ordered &= previous == null || previous.compareTo(date) <= 0;
+                previous = date;
+            }
+            System.out.printf("%,d transactions: whole statement %d ms, %s %,d rows in %d ms%s%n", all,
+                    whole / 1_000_000, from.getMonth(), rows, lastMonth / 1_000_000,
+                    rows == expected && ordered ? "" : " MISMATCH (expected " + expected + " rows in date order)");
+        }
+        store.close();
+
+        File data = new File(dir, "export");
+        data.mkdirs();
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+        ArrayList<byte[]> records = new ArrayList<>();
+        for (User account : createUsers(accountCount, historyLength).values()) {
+            records.add(UserCodec.encode(account));
+        }
+        UserCodec.writeSnapshot(new File(data, BankEngine.FILE_NAME), 0, 0, records);
+        records = null;
+        System.setProperty("bank.interest.checkMinutes", "0");
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        StatementExporter exporter = new StatementExporter(engine);
+        File out = new File(dir, "export_statements");
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(cores, 4); threads *= 2) {
+            long start = System.nanoTime();
+            int written = exporter.exportAll(out, null, null, threads);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%2d threads: %,d statements in %d ms (%s)%n", threads, written, elapsed / 1_000_000,
+                    rate(written, elapsed));
+        }
+        System.out.println("(" + cores + " cores available)");
+        engine.close();
+    }
+
+    // ---------------------- METRICS ----------------------
+    // What a recording costs in time and allocation, percentiles against the exact values for
+    // latencies spread from microseconds to seconds, then the report of an engine after some
+    // logins and card payments, good and bad.
+    static void metrics(File dir, int recordings) throws Exception {
+        Metrics m = new Metrics();
+        long[] samples = new long[1 << 16];
+        Random rand = new Random(5);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (long) Math.exp(7 + rand.nextDouble() * 14); // ~1 us to ~1 s
+        }
+        java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean threads = mx instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) mx : null;
+        for (int pass = 0; pass < 2; pass++) {
+            // The first pass warms up
+            long allocated = threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < recordings; i++) {
+                long now = System.nanoTime();
+                m.record(Metrics.CARD_PAYMENT, now - samples[i & (samples.length - 1)],
+                        (i & 15) == 0 ? "Invalid PIN!" : null);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (pass == 1)
+                System.out.printf("%,d recordings: %.1f ns each, %s%n", recordings, (double) elapsed / recordings,
+                        threads != null ? (threads.getCurrentThreadAllocatedBytes() - allocated) + " bytes allocated"
+                                : "allocation not measurable");
+        }
+
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (long v : samples) {
+            h.record(v);
+        }
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        double worst = 0;
+        for (double p : new double[] { 50, 90, 99, 99.9 }) {
+            long exact = sorted[(int) Math.ceil(p / 100 * sorted.length) - 1];
+            long reported = h.percentile(p);
+            worst = Math.max(worst, Math.abs(reported - exact) / (double) exact);
+            System.out.printf("p%-5s exact %,13d ns, histogram %,13d ns%n", p, exact, reported);
+        }
+        System.out.println(worst <= 1.0 / 32 ? String.format("OK: within %.2f%%", worst * 100)
+                : String.format("FAILED: off by %.2f%%", worst * 100));
+
+        File data = new File(dir, "metrics");
+        data.mkdirs();
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        User u = new User("metrics", "metrics123", Money.ofRupees(8000), Money.ofRupees(3000));
+        BankEngine.CardPayment[] cards = { card(u, true), card(u, false) };
+        engine.addUser(u);
+        for (int i = 0; i < 1000; i++) {
+            engine.authenticate("metrics", i % 10 == 0 ? "wrong" : "metrics123");
+            BankEngine.CardPayment card = cards[i % 2];
+            engine.payWithCard(u, payment(card, i % 25 == 0 ? "----" : card.pin, Money.ofRupees(50))).durable.join();
+        }
+        engine.save();
+        System.out.print(engine.metrics.text());
+        System.out.print(engine.metrics.prometheus());
+        engine.close();
+    }
+
+    // ---------------------- LOGIN ----------------------
+    // Logins per second through BankEngine.authenticate with passwords hashed at the
+    // configured KDF cost, at 1, 2, 4 ... maxThreads threads: first with every login paying for
+    // the KDF, then with the verified-credential cache answering all but the first per account.
+    // Per core is the rate over the cores the threads could use.
+    static void login(File dir, int maxThreads, int accountCount, int seconds) throws Exception {
+        File data = new File(dir, "login");
+        data.mkdirs();
+        for (File f : data.listFiles()) {
+            f.delete();
+        }
+        long start = System.nanoTime();
+        ArrayList<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++) {
+            // Only the password matters here, the card secrets stay plaintext
+            User u = new User("login" + i, "pass" + i, Money.ofRupees(10000), 0);
+            u.password = Credentials.hash(u.password);
+            records.add(UserCodec.encode(u));
+        }
+        UserCodec.writeSnapshot(new File(data, BankEngine.FILE_NAME), 0, 0, records);
+        System.out.printf("%d accounts hashed at %,d iterations in %d ms%n", accountCount, Credentials.ITERATIONS,
+                (System.nanoTime() - start) / 1_000_000);
+
+        System.setProperty("bank.interest.checkMinutes", "0");
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        int cores = Runtime.getRuntime().availableProcessors();
+        long cacheNanos = Credentials.cacheNanos;
+        for (boolean cached : new boolean[] { false, true }) {
+            Credentials.cacheNanos = cached ? Math.max(cacheNanos, 3600_000_000_000L) : 0;
+            Credentials.clearCache();
+            if (cached) {
+                for (int i = 0; i < accountCount; i++) {
+                    engine.authenticate("login" + i, "pass" + i);
+                }
+            }
+            for (int threadCount = 1; threadCount <= maxThreads; threadCount *= 2) {
+                long[] logins = new long[threadCount];
+                int[] refused = new int[threadCount];
+                long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+                Thread[] threads = new Thread[threadCount];
+                long runStart = System.nanoTime();
+                for (int t = 0; t < threadCount; t++) {
+                    int id = t;
+                    threads[t] = new Thread(() -> {
+                        Random rand = new Random(id);
+                        while (System.nanoTime() < deadline) {
+                            int a = rand.nextInt(accountCount);
+                            if (engine.authenticate("login" + a, "pass" + a) == null)
+                                refused[id]++;
+                            logins[id]++;
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread t : threads) {
+                    t.join();
+                }
+                double rate = Arrays.stream(logins).sum() / ((System.nanoTime() - runStart) / 1e9);
+                System.out.printf("%-9s %2d threads: %,12.1f logins/s, %,12.1f per core%s%n",
+                        cached ? "cached" : "uncached", threadCount, rate, rate / Math.min(threadCount, cores),
+                        Arrays.stream(refused).sum() > 0 ? " FAILED: logins refused" : "");
+            }
+        }
+        Credentials.cacheNanos = cacheNanos;
+        System.out.println("(" + cores + " cores available)");
+        engine.close();
+    }
+
+    // Heap in use once garbage collection has settled: collected until two readings in a row are
+    // within 64 KB of each other, or 20 times at most
+    static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        long last = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++) {
+            System.gc();
+            Thread.sleep(100);
+            long used = rt.totalMemory() - rt.freeMemory();
+            if (Math.abs(used - last) < 64 * 1024)
+                return used;
+            last = used;
+        }
+        return last;
+    }
+
+    static String rate(int users, long nanos) {
+        return String.format("%,.0f users/s", users / (nanos / 1e9));
+    }
+
+    // u's card as its holder would enter it, taken before the engine keeps only hashes of the
+    // CVV and PIN
+    static BankEngine.CardPayment card(User u, boolean debit) {
+        BankEngine.CardPayment card = new BankEngine.CardPayment();
+        card.cardNumber = debit ? u.debitCardNumber : u.creditCardNumber;
+        card.cvv = debit ? u.debitCVV : u.creditCVV;
+        card.expiryDate = debit ? u.debitExpiryDate : u.creditExpiryDate;
+        card.pin = debit ? u.debitPIN : u.creditPIN;
+        return card;
+    }
+
+    static BankEngine.CardPayment payment(BankEngine.CardPayment card, String pin, long amount) {
+        BankEngine.CardPayment p = new BankEngine.CardPayment();
+        p.cardNumber = card.cardNumber;
+        p.cvv = card.cvv;
+        p.expiryDate = card.expiryDate;
+        p.pin = pin;
+        p.amount = amount;
+        return p;
+    }
+
+    static HashMap<String, User> createUsers(int count, int historyLength) {
+        HashMap<String, User> users = new HashMap<>();
+        Random rand = new Random(7);
+        String[] types = { "Deposit", "Withdraw", "FD_Transfer", "FD_Withdraw", "Card_Payment" };
+        for (int i = 0; i < count; i++) {
+            String name = "user" + i;
+            User u = new User(name, "pass" + i, Money.ofRupees(10000), Money.ofRupees(5000));
+            for (int j = 0; j < historyLength; j++) {
+                String type = types[rand.nextInt(types.length)];
+                u.addTransaction(new Transaction(type, rand.nextInt(100000), "Synthetic " + type,
+                        type.equals("Card_Payment") ? "Debit" : ""));
+            }
+            users.put(name, u);
+        }
+        return users;
+    }
+}
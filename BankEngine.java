@@ -0,0 +1,817 @@
+import java.io.*;
+import java.util.*;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+// The bank without a user interface: accounts, storage and every business rule the GUI used
+// to apply itself. Safe to call from any number of threads. Nothing here touches AWT, so
+// servers, batch jobs and benchmarks can drive it directly.
+//
+//   BankEngine engine = new BankEngine(new File("."));
+//   engine.open();
+//   BankEngine.Result r = engine.deposit(engine.authenticate("john", "john123"), Money.ofRupees(500));
+//   r.durable.join(); // on disk
+//   engine.close();
+class BankEngine {
+    static final String FILE_NAME = "bank_users.dat";
+    static final String LEGACY_FILE_NAME = "bank_users.txt";
+    static final String JOURNAL_FILE = "bank_users.journal";
+    static final String HISTORY_FILE = "bank_history.dat";
+
+    // Outcome of an operation. message is meant for the person who asked, success or not.
+    static class Result {
+        final boolean ok;
+        final String message;
+        final Transaction transaction; // recorded by the operation, if any
+        final CompletableFuture<Long> durable; // completes once the change is on disk
+
+        Result(boolean ok, String message, Transaction transaction, CompletableFuture<Long> durable) {
+            this.ok = ok;
+            this.message = message;
+            this.transaction = transaction;
+            this.durable = durable;
+        }
+
+        static Result failed(String message) {
+            return new Result(false, message, null, CompletableFuture.completedFuture(null));
+        }
+    }
+
+    // A card payment as entered at the terminal. Fields left null are not checked yet, so a
+    // UI can validate the details one step at a time with checkCard().
+    static class CardPayment {
+        String cardNumber;
+        String cvv;
+        String expiryDate;
+        String pin;
+        long amount;
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom(); // for reissued PINs and CVVs
+
+    private final AccountStore accounts = new AccountStore();
+    private final CardIndex cards = new CardIndex();
+    private final Journal journal;
+    private final HistoryStore history;
+    private final Snapshotter snapshotter;
+    private final GroupCommitWriter writer;
+    private final InterestAccrual interest = InterestAccrual.fromSystemProperties();
+    private final CardLockout lockout = CardLockout.fromSystemProperties();
+    private final List<Consumer<User>> deleteListeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService interestScheduler;
+    final Metrics metrics = new Metrics(); // login, load, save and card payment times and refusals
+    Clock clock = Clock.systemDefaultZone(); // what "today" is, for interest and spending limits
+
+    // Keeps its files in dir, snapshotting by -Dbank.snapshot.* (see Snapshotter.Policy)
+    public BankEngine(File dir) {
+        this(dir, Snapshotter.Policy.fromSystemProperties());
+    }
+
+    public BankEngine(File dir, Snapshotter.Policy policy) {
+        journal = new Journal(new File(dir, JOURNAL_FILE).getPath());
+        history = new HistoryStore(new File(dir, HISTORY_FILE).getPath());
+        snapshotter = new Snapshotter(new File(dir, FILE_NAME).getPath(), new File(dir, LEGACY_FILE_NAME).getPath(),
+                journal, history, accounts, policy);
+        writer = new GroupCommitWriter(journal);
+    }
+
+    // ---------------------- LIFECYCLE ----------------------
+    // Loads the accounts (creating the demo accounts on first run) and starts the writer and
+    // snapshotter threads
+    public void open() {
+        accounts.clear();
+        cards.clear();
+        boolean firstRun = !snapshotter.exists();
+
+        // Last snapshot plus everything journaled since it was written
+        long start = System.nanoTime();
+        snapshotter.load();
+        metrics.record(Metrics.LOAD, start, null);
+        int plaintext = 0;
+        for (User u : accounts.values()) {
+            indexCards(u);
+            if (!Credentials.isProtected(u))
+                plaintext++;
+        }
+        if (plaintext > 0)
+            System.out.println(plaintext + " accounts still have plaintext credentials, see Credentials");
+
+        if (firstRun) {
+            for (User u : new User[] { new User("admin", "1234", Money.ofRupees(10000), Money.ofRupees(5000)),
+                    new User("john", "john123", Money.ofRupees(8000), Money.ofRupees(3000)) }) {
+                String error = putUser(u);
+                if (error != null)
+                    throw new IllegalStateException("Could not create " + u.username + ": " + error);
+            }
+            save();
+        }
+        writer.start();
+        snapshotter.start();
+        startInterestScheduler();
+        metrics.start();
+    }
+
+    // Commits everything submitted, writes a final snapshot and releases the files
+    public void close() {
+        if (interestScheduler != null) {
+            // Not interrupted: that would close the history file under an accrual in progress
+            interestScheduler.shutdown();
+            try {
+                interestScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        metrics.stop();
+        snapshotter.stop();
+        try {
+            writer.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        save();
+        try {
+            history.close();
+        } catch (IOException e) {
+            System.out.println("Error closing files: " + e.getMessage());
+        }
+    }
+
+    // Writes a full snapshot synchronously and compacts the journal. Only needed for admin
+    // changes and on exit; balance operations go to the journal and the background
+    // snapshotter takes care of the rest.
+    public void save() {
+        long start = System.nanoTime();
+        try {
+            snapshotter.write(snapshotter.capture());
+            metrics.record(Metrics.SAVE, start, null);
+        } catch (Exception e) {
+            metrics.record(Metrics.SAVE, start, "Error");
+            System.out.println("Error saving users: " + e.getMessage());
+        }
+    }
+
+    // ---------------------- ACCOUNTS ----------------------
+    // Returns null unless the username exists and the password matches. A password stored in
+    // plaintext or at an old cost is hashed again now that it is known.
+    public User authenticate(String username, String password) {
+        long start = System.nanoTime();
+        User u = accounts.get(username);
+        String stored = u != null ? u.password : null;
+        if (!Credentials.verify(stored, password)) {
+            metrics.record(Metrics.LOGIN, start, "Invalid username or password!");
+            return null;
+        }
+        if (Credentials.needsRehash(stored))
+            rehash(u, stored, Credentials.hash(password));
+        metrics.record(Metrics.LOGIN, start, null);
+        return u;
+    }
+
+    public User find(String username) {
+        return accounts.get(username);
+    }
+
+    // Epoch day by the engine's clock
+    public long today() {
+        return LocalDate.now(clock).toEpochDay();
+    }
+
+    public Collection<User> users() {
+        return accounts.values();
+    }
+
+    // A copy taken under u's lock: the cached history grows as other threads record
+    // transactions on the account
+    public List<Transaction> history(User u) {
+        return accounts.update(u, () -> new ArrayList<>(u.getTransactionHistory()));
+    }
+
+    // u's history newest first, read from the history store as it is asked for
+    public HistoryStore.Cursor historyCursor(User u) {
+        return accounts.update(u, () -> u.historyStore == history ? history.cursor(u)
+                : HistoryStore.Cursor.of(new ArrayList<>(u.getTransactionHistory())));
+    }
+
+    // u's history for reading in date order, see HistoryStore.Scan and StatementExporter
+    public HistoryStore.Scan historyScan(User u) {
+        return accounts.update(u, () -> {
+            if (u.historyStore == history)
+                return history.scan(u);
+            TransactionLog copy = new TransactionLog();
+            copy.addAll(u.getTransactionHistory());
+            return HistoryStore.Scan.of(copy);
+        });
+    }
+
+    // Totals per month from..to inclusive (null for no bound), oldest first, months without
+    // transactions left out. Answered from the account's running totals.
+    public List<MonthlyTotals.Month> statement(User u, YearMonth from, YearMonth to) {
+        return accounts.update(u, () -> u.monthlyTotals.between(from, to));
+    }
+
+    // ---------------------- OPERATIONS ----------------------
+    public Result deposit(User u, long amount) {
+        if (amount <= 0)
+            return Result.failed("Invalid amount!");
+        return apply(u, new Transaction("Deposit", amount, "Cash Deposit", ""),
+                "Deposited ₹" + Money.format(amount) + " successfully!", () -> {
+                    u.balance += amount;
+                    return null;
+                });
+    }
+
+    public Result withdraw(User u, long amount) {
+        return apply(u, new Transaction("Withdraw", amount, "Cash Withdrawal", ""),
+                "Withdrawn ₹" + Money.format(amount) + " successfully!", () -> {
+                    if (amount <= 0 || amount > u.balance)
+                        return "Insufficient balance or invalid amount!";
+                    u.balance -= amount;
+                    return null;
+                });
+    }
+
+    public Result transferToFD(User u, long amount) {
+        return apply(u, new Transaction("FD_Transfer", amount, "Transfer to Fixed Deposit", ""),
+                "Transferred ₹" + Money.format(amount) + " to FD successfully!", () -> {
+                    if (amount <= 0 || amount > u.balance)
+                        return "Invalid or insufficient balance!";
+                    u.balance -= amount;
+                    u.fdBalance += amount;
+                    return null;
+                });
+    }
+
+    public Result withdrawFromFD(User u, long amount) {
+        return apply(u, new Transaction("FD_Withdraw", amount, "Withdrawal from Fixed Deposit", ""),
+                "Withdrawn ₹" + Money.format(amount) + " from FD successfully!", () -> {
+                    if (amount <= 0 || amount > u.fdBalance)
+                        return "Insufficient FD balance or invalid amount!";
+                    u.fdBalance -= amount;
+                    u.balance += amount;
+                    return null;
+                });
+    }
+
+    // Moves amount from one customer's balance to another's, recording Transfer_Out and
+    // Transfer_In on the two accounts. Both accounts are locked for the move and the pair is
+    // one journal record, so neither side is ever visible or durable without the other.
+    public Result transfer(User from, String toUsername, long amount) {
+        User to = accounts.get(toUsername);
+        if (to == null)
+            return Result.failed("Recipient not found!");
+        if (to == from)
+            return Result.failed("Cannot transfer to your own account!");
+        if (amount <= 0)
+            return Result.failed("Invalid amount!");
+
+        Transaction out = new Transaction("Transfer_Out", amount, "Transfer to " + to.username, "");
+        Transaction in = new Transaction("Transfer_In", amount, "Transfer from " + from.username, "");
+        return accounts.update(from, to, () -> {
+            if (accounts.get(from.username) != from)
+                return Result.failed("User not found!");
+            if (accounts.get(to.username) != to)
+                return Result.failed("Recipient not found!");
+            if (amount > from.balance)
+                return Result.failed("Insufficient balance!");
+            from.balance -= amount;
+            to.balance += amount;
+            from.addTransaction(out);
+            to.addTransaction(in);
+            return new Result(true, "Transferred ₹" + Money.format(amount) + " to " + to.username + " successfully!",
+                    out, writer.submitPair(from, out, to, in));
+        });
+    }
+
+    // "Debit" or "Credit" if cardNumber (spaces ignored) is one of u's cards, else null
+    public String cardType(User u, String cardNumber) {
+        CardIndex.Card card = cards.get(cardNumber);
+        return card != null && card.owner == u ? card.type : null;
+    }
+
+    // The account and card type behind a card number, whoever it belongs to, or null
+    public CardIndex.Card findCard(String cardNumber) {
+        return cards.get(cardNumber);
+    }
+
+    // Merchant-side payment: the card details alone identify the account to charge
+    public Result authorize(CardPayment p) {
+        BankEvents.CardAuthorization event = new BankEvents.CardAuthorization();
+        event.begin();
+        long start = System.nanoTime();
+        CardIndex.Card card = p.cardNumber != null ? cards.get(p.cardNumber) : null;
+        Result r = card != null ? pay(card.owner, p) : Result.failed("Card number not found!");
+        return paid(start, event, null, p, r);
+    }
+
+    // Checks the card details filled in so far; returns the first problem, or null. A UI
+    // checking step by step stops at the first problem, so it counts as a refused payment.
+    public String checkCard(User u, CardPayment p) {
+        String error = cardError(u, p);
+        if (error != null)
+            metrics.refused(Metrics.CARD_PAYMENT, error);
+        return error;
+    }
+
+    // Debit cards draw on the balance within the daily and monthly limits, credit cards on the
+    // credit limit
+    public Result payWithCard(User u, CardPayment p) {
+        BankEvents.CardAuthorization event = new BankEvents.CardAuthorization();
+        event.begin();
+        long start = System.nanoTime();
+        return paid(start, event, u, p, pay(u, p));
+    }
+
+    // Counts a card payment in the metrics and, if a recording wants it, as a JFR event. u is
+    // the account it was meant for, or null for whoever owns the card.
+    private Result paid(long start, BankEvents.CardAuthorization event, User u, CardPayment p, Result r) {
+        metrics.record(Metrics.CARD_PAYMENT, start, r.ok ? null : r.message);
+        if (event.shouldCommit()) {
+            CardIndex.Card card = p.cardNumber != null ? cards.get(p.cardNumber) : null;
+            event.cardType = card != null && (u == null || card.owner == u) ? card.type : null;
+            event.outcome = r.ok ? "approved" : Metrics.REASONS[Metrics.reason(r.message)];
+            event.commit();
+        }
+        return r;
+    }
+
+    private String cardError(User u, CardPayment p) {
+        CardIndex.Card card = p.cardNumber != null ? cards.get(p.cardNumber) : null;
+        if (card == null || card.owner != u)
+            return "Card number not found!";
+        return checkLocked(card, p);
+    }
+
+    private Result pay(User u, CardPayment p) {
+        if (p.cvv == null || p.expiryDate == null || p.pin == null)
+            return Result.failed("Incomplete card details!");
+        String error = cardError(u, p);
+        if (error != null)
+            return Result.failed(error);
+        long amount = p.amount;
+        if (amount <= 0)
+            return Result.failed("Invalid amount!");
+
+        String cardType = cardType(u, p.cardNumber);
+        return apply(u, cardTransaction(cardType, amount), cardMessage(cardType, amount),
+                () -> charge(u, cardType, amount));
+    }
+
+    // ---------------------- BATCH AUTHORIZATION ----------------------
+    // Authorizes a batch of merchant-side payments with the same rules, messages and records
+    // as authorize() one by one, but in stages:
+    //   1. card lookup, then the CVV, expiry, PIN and amount checks, which need no lock, spread
+    //      over the common pool by card; one card's payments are checked in batch order, so
+    //      CardLockout counts them as it would one by one
+    //   2. what passed is grouped by account, in batch order within each account
+    //   3. each account is locked once for the limit checks, debits, history and journal
+    //      records of all its payments, accounts in parallel
+    // Results are in batch order, each with its own durability future. Each payment counts
+    // in the metrics as taking as long as the whole batch.
+    public Result[] authorizeAll(List<CardPayment> payments) {
+        long start = System.nanoTime();
+        int n = payments.size();
+        Result[] results = new Result[n];
+        CardIndex.Card[] resolved = new CardIndex.Card[n];
+
+        IdentityHashMap<CardIndex.Card, ArrayList<Integer>> byCard = new IdentityHashMap<>();
+        for (int i = 0; i < n; i++) {
+            CardPayment p = payments.get(i);
+            CardIndex.Card card;
+            if (p.cvv == null || p.expiryDate == null || p.pin == null) {
+                results[i] = Result.failed("Incomplete card details!");
+            } else if ((card = p.cardNumber != null ? cards.get(p.cardNumber) : null) == null) {
+                results[i] = Result.failed("Card number not found!");
+            } else {
+                byCard.computeIfAbsent(card, k -> new ArrayList<>()).add(i);
+            }
+        }
+        new ArrayList<>(byCard.entrySet()).parallelStream().forEach(e -> {
+            CardIndex.Card card = e.getKey();
+            for (int i : e.getValue()) {
+                CardPayment p = payments.get(i);
+                String error = checkLocked(card, p);
+                if (error == null && p.amount <= 0)
+                    error = "Invalid amount!";
+                if (error != null) {
+                    results[i] = Result.failed(error);
+                } else {
+                    resolved[i] = card;
+                }
+            }
+        });
+
+        IdentityHashMap<User, ArrayList<Integer>> byAccount = new IdentityHashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (resolved[i] != null)
+                byAccount.computeIfAbsent(resolved[i].owner, k -> new ArrayList<>()).add(i);
+        }
+
+        new ArrayList<>(byAccount.entrySet()).parallelStream().forEach(e -> {
+            User u = e.getKey();
+            accounts.update(u, () -> {
+                for (int i : e.getValue()) {
+                    if (accounts.get(u.username) != u) {
+                        results[i] = Result.failed("Card number not found!");
+                        continue;
+                    }
+                    String cardType = resolved[i].type;
+                    long amount = payments.get(i).amount;
+                    String error = charge(u, cardType, amount);
+                    if (error != null) {
+                        results[i] = Result.failed(error);
+                        continue;
+                    }
+                    Transaction t = cardTransaction(cardType, amount);
+                    results[i] = new Result(true, cardMessage(cardType, amount), t, record(u, t));
+                }
+                return null;
+            });
+        });
+
+        for (Result r : results) {
+            metrics.record(Metrics.CARD_PAYMENT, start, r.ok ? null : r.message);
+        }
+        return results;
+    }
+
+    // checkDetails() for the card p names, unless too many wrong details have locked it (see
+    // CardLockout)
+    private String checkLocked(CardIndex.Card card, CardPayment p) {
+        if (p.cvv == null && p.expiryDate == null && p.pin == null)
+            return null;
+        if (!lockout.attempt(p.cardNumber))
+            return "Card blocked after too many wrong attempts, try again later!";
+        String error = checkDetails(card.owner, card.type, p);
+        if (error == null)
+            lockout.passed(p.cardNumber, p.cvv != null && p.expiryDate != null && p.pin != null);
+        return error;
+    }
+
+    // The CVV, expiry and PIN checks for one of u's cards; fields left null are skipped. Card
+    // secrets still in plaintext are not hashed here, payments should not pay for that (see
+    // hashCredentials()).
+    private static String checkDetails(User u, String cardType, CardPayment p) {
+        boolean isDebit = cardType.equals(CardIndex.DEBIT);
+        if (p.expiryDate != null && !p.expiryDate.equals(isDebit ? u.debitExpiryDate : u.creditExpiryDate))
+            return "Invalid Expiry Date!";
+        if (p.cvv != null && !Credentials.verify(isDebit ? u.debitCVV : u.creditCVV, p.cvv))
+            return "Invalid CVV!";
+        if (p.pin != null && !Credentials.verify(isDebit ? u.debitPIN : u.creditPIN, p.pin))
+            return "Invalid PIN!";
+        return null;
+    }
+
+    // Applies a card payment to u, which must be locked. Returns why it was refused, or null.
+    private String charge(User u, String cardType, long amount) {
+        if (cardType.equals(CardIndex.DEBIT)) {
+            // Check limits
+            long today = today();
+            long dailySpent = u.getDailySpent(today);
+            long monthlySpent = u.getMonthlySpent(today);
+            if (dailySpent + amount > u.dailySpendingLimit)
+                return "Daily spending limit exceeded! Remaining: ₹"
+                        + Money.format(u.dailySpendingLimit - dailySpent);
+            if (monthlySpent + amount > u.monthlySpendingLimit)
+                return "Monthly spending limit exceeded! Remaining: ₹"
+                        + Money.format(u.monthlySpendingLimit - monthlySpent);
+            if (amount > u.balance)
+                return "Insufficient balance!";
+
+            u.balance -= amount;
+            u.addSpending(today, amount);
+        } else {
+            if (u.creditUsed + amount > u.creditLimit)
+                return "Credit limit exceeded! Available: ₹" + Money.format(u.getAvailableCredit());
+            u.creditUsed += amount;
+        }
+        return null;
+    }
+
+    private static Transaction cardTransaction(String cardType, long amount) {
+        return new Transaction("Card_Payment", amount, "Payment via " + cardType + " Card", cardType);
+    }
+
+    private static String cardMessage(String cardType, long amount) {
+        return "Payment of ₹" + Money.format(amount) + " successful using " + cardType + " Card!";
+    }
+
+    // ---------------------- INTEREST ----------------------
+    // Credits FD interest to every customer for the periods completed by today and not yet
+    // credited. Running it again for the same period changes nothing. Updates are held back
+    // while it runs: interest is computed in parallel chunks over the accounts, then all the
+    // FD_Interest records go to the journal as one write.
+    public Result accrueInterest(LocalDate today) {
+        long periodStart = interest.periodStart(today).toEpochDay();
+        long previousStart = interest.previousPeriodStart(interest.periodStart(today)).toEpochDay();
+
+        int[] count = new int[1];
+        AtomicBoolean advanced = new AtomicBoolean(); // a watermark moved with nothing to credit
+        CompletableFuture<Long> durable = accounts.exclusive(() -> {
+            User[] all = accounts.values().toArray(new User[0]);
+            Transaction[] credited = new Transaction[all.length];
+            // One timestamp for the run, and one description per accrual start day
+            String date = new Transaction("FD_Interest", 0, "", "").date;
+            ConcurrentHashMap<Long, String> descriptions = new ConcurrentHashMap<>();
+            int chunks = Math.max(1, Math.min(all.length, ForkJoinPool.getCommonPoolParallelism() * 8));
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int end = (int) ((long) all.length * (c + 1) / chunks);
+                for (int i = (int) ((long) all.length * c / chunks); i < end; i++) {
+                    User u = all[i];
+                    if (u.username.equalsIgnoreCase("admin") || u.interestAccruedTo >= periodStart)
+                        continue;
+                    long from = u.interestAccruedTo > 0 ? u.interestAccruedTo : previousStart;
+                    long amount = interest.interest(u.fdBalance, from, periodStart);
+                    u.interestAccruedTo = periodStart;
+                    if (amount > 0) {
+                        u.fdBalance += amount;
+                        String description = descriptions.computeIfAbsent(from, d -> "FD interest "
+                                + LocalDate.ofEpochDay(d) + " to " + LocalDate.ofEpochDay(periodStart - 1));
+                        credited[i] = new Transaction("FD_Interest", amount, date, description, "");
+                    } else {
+                        advanced.set(true);
+                    }
+                }
+            });
+
+            ArrayList<User> users = new ArrayList<>();
+            ArrayList<Transaction> transactions = new ArrayList<>();
+            for (int i = 0; i < all.length; i++) {
+                if (credited[i] != null) {
+                    users.add(all[i]);
+                    transactions.add(credited[i]);
+                }
+            }
+            recordAll(users, transactions);
+            count[0] = users.size();
+            if (users.isEmpty())
+                return CompletableFuture.completedFuture(journal.getLastLsn());
+            return writer.submitAll(users, transactions);
+        });
+        if (advanced.get()) {
+            // Accounts credited nothing have no journal record to carry their new watermark; the
+            // snapshot covers them. Without it a restart would credit them again, on whatever FD
+            // balance they have by then.
+            save();
+        }
+        return new Result(true, "Interest credited to " + count[0] + " accounts up to "
+                + LocalDate.ofEpochDay(periodStart - 1), null, durable);
+    }
+
+    // Catches up on open, then looks for a new period every few minutes. 0 minutes leaves
+    // accrual to explicit accrueInterest() calls.
+    private void startInterestScheduler() {
+        long minutes = Long.getLong("bank.interest.checkMinutes", 60);
+        if (minutes <= 0)
+            return;
+        interestScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bank-interest");
+            t.setDaemon(true);
+            return t;
+        });
+        interestScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                accrueInterest(LocalDate.now(clock));
+            } catch (Exception e) {
+                System.out.println("Error crediting interest: " + e.getMessage());
+            }
+        }, 0, minutes, TimeUnit.MINUTES);
+    }
+
+    // ---------------------- ADMIN ----------------------
+    public Result addUser(String username, String password, long balance, long fdBalance) {
+        if (username.isEmpty() || password.isEmpty())
+            return Result.failed("Fields cannot be empty!");
+        return addUser(new User(username, password, balance, fdBalance));
+    }
+
+    // u still has the plaintext PINs and CVVs it was created with; the message is the only
+    // place they appear once the account keeps just their hashes
+    Result addUser(User u) {
+        String message = "New user '" + u.username + "' added successfully! Debit card PIN " + u.debitPIN + ", CVV "
+                + u.debitCVV + "; credit card PIN " + u.creditPIN + ", CVV " + u.creditCVV + ".";
+        String error = putUser(u);
+        if (error != null)
+            return Result.failed(error);
+        save();
+        return done(message);
+    }
+
+    // An empty password leaves the current one
+    public Result editUser(String username, String password, long balance, long fdBalance) {
+        User u = accounts.get(username);
+        if (u == null)
+            return Result.failed("User not found!");
+        String hashed = password.isEmpty() ? null : Credentials.hash(password);
+        accounts.update(u, () -> {
+            if (hashed != null)
+                u.password = hashed;
+            u.balance = balance;
+            u.fdBalance = fdBalance;
+            return null;
+        });
+        save();
+        return done("User '" + username + "' updated successfully!");
+    }
+
+    // Gives one of the account's cards (CardIndex.DEBIT or CREDIT) a new random PIN and CVV and
+    // lifts a lock from wrong attempts. Only their hashes are kept, so the message is the one
+    // place they appear; this is how a forgotten PIN, or one nobody was ever shown, such as
+    // the demo accounts', is replaced.
+    public Result reissueCardSecrets(String username, String cardType) {
+        User u = accounts.get(username);
+        if (u == null)
+            return Result.failed("User not found!");
+        boolean debit = cardType.equals(CardIndex.DEBIT);
+        String pin = String.format("%04d", RANDOM.nextInt(10000));
+        String cvv = String.format("%03d", RANDOM.nextInt(1000));
+        String hashedPin = Credentials.hash(pin);
+        String hashedCvv = Credentials.hash(cvv);
+        String cardNumber = accounts.update(u, () -> {
+            if (debit) {
+                u.debitPIN = hashedPin;
+                u.debitCVV = hashedCvv;
+                return u.debitCardNumber;
+            }
+            u.creditPIN = hashedPin;
+            u.creditCVV = hashedCvv;
+            return u.creditCardNumber;
+        });
+        lockout.passed(cardNumber, true);
+        save();
+        return done(cardType + " card of '" + username + "' reissued: PIN " + pin + ", CVV " + cvv + ".");
+    }
+
+    // Hashes every credential still stored in plaintext, threads accounts at a time, then
+    // writes a snapshot. Returns how many were hashed.
+    public int hashCredentials(int threads) {
+        return hashCredentials(new ArrayList<>(accounts.values()), threads);
+    }
+
+    // The same for some of the accounts only
+    int hashCredentials(List<User> users, int threads) {
+        AtomicInteger hashed = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> users.parallelStream().forEach(u -> {
+                String[] stored = accounts.update(u,
+                        () -> new String[] { u.password, u.debitCVV, u.debitPIN, u.creditCVV, u.creditPIN });
+                for (String s : stored) {
+                    if (s != null && !Credentials.isHashed(s))
+                        hashed.addAndGet(rehash(u, s, Credentials.hash(s)));
+                }
+            })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Error hashing credentials: " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        save();
+        return hashed.get();
+    }
+
+    // listener hears of every account deleteUser() removes, once it is gone
+    public void onDelete(Consumer<User> listener) {
+        deleteListeners.add(listener);
+    }
+
+    public Result deleteUser(String username) {
+        if (!accounts.contains(username))
+            return Result.failed("User not found!");
+        if (username.equalsIgnoreCase("admin"))
+            return Result.failed("Admin account cannot be deleted!");
+        // Under the account's lock, so an operation either finishes before the account goes
+        // or finds it gone
+        User u = accounts.get(username);
+        if (u == null || accounts.update(u, () -> accounts.remove(username)) != u)
+            return Result.failed("User not found!");
+        cards.remove(u);
+        history.evict(username);
+        for (Consumer<User> listener : deleteListeners) {
+            listener.accept(u);
+        }
+        save();
+        return done("User '" + username + "' deleted successfully!");
+    }
+
+    // ---------------------- INTERNALS ----------------------
+    // Runs change under u's lock. change returns an error message to refuse, or null after
+    // changing u, in which case t is recorded and handed to the group-commit writer.
+    private Result apply(User u, Transaction t, String okMessage, java.util.function.Supplier<String> change) {
+        return accounts.update(u, () -> {
+            if (accounts.get(u.username) != u)
+                return Result.failed("User not found!");
+            String error = change.get();
+            if (error != null)
+                return Result.failed(error);
+            return new Result(true, okMessage, t, record(u, t));
+        });
+    }
+
+    // Adds t to u's history and hands it to the group-commit writer; u must be locked
+    private CompletableFuture<Long> record(User u, Transaction t) {
+        u.addTransaction(t);
+        return writer.submit(u, t);
+    }
+
+    // record() for many accounts at once, with one history write; the accounts must be held
+    // still by the caller
+    private void recordAll(List<User> users, List<Transaction> transactions) {
+        ArrayList<User> stored = new ArrayList<>();
+        ArrayList<Transaction> storedTransactions = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            User u = users.get(i);
+            if (u.historyStore == history) {
+                stored.add(u);
+                storedTransactions.add(transactions.get(i));
+            } else {
+                u.addTransaction(transactions.get(i));
+            }
+        }
+        try {
+            history.appendAll(stored, storedTransactions);
+        } catch (IOException e) {
+            System.out.println("Error writing transaction history: " + e.getMessage());
+        }
+    }
+
+    // New accounts keep their transaction history in the history store like loaded ones, and
+    // only hashes of their credentials. Returns why u was not added, or null. An account whose
+    // card numbers cannot go into the card index is not added at all: it would have a card that
+    // pays from someone else's account, or no card that works.
+    private String putUser(User u) {
+        if (accounts.contains(u.username))
+            return "User already exists!";
+        Credentials.protect(u);
+        // Interest accrues from the day the account is opened
+        if (u.interestAccruedTo == 0)
+            u.interestAccruedTo = today();
+        if (!accounts.add(u))
+            return "User already exists!";
+        if (!cards.add(u)) {
+            cards.remove(u);
+            accounts.remove(u.username);
+            System.out.println("Error indexing cards of " + u.username + ": card number invalid or already issued");
+            return "Card number invalid or already issued, please try again!";
+        }
+        try {
+            history.attach(u);
+        } catch (IOException e) {
+            System.out.println("Error opening transaction history: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Puts hashed in place of every credential of u that is still the very string stored, which
+    // the caller has just verified or hashed; one changed in the meantime is left alone.
+    // Returns how many were replaced.
+    private int rehash(User u, String stored, String hashed) {
+        return accounts.update(u, () -> {
+            int replaced = 0;
+            if (u.password == stored) {
+                u.password = hashed;
+                replaced++;
+            }
+            if (u.debitCVV == stored) {
+                u.debitCVV = hashed;
+                replaced++;
+            }
+            if (u.debitPIN == stored) {
+                u.debitPIN = hashed;
+                replaced++;
+            }
+            if (u.creditCVV == stored) {
+                u.creditCVV = hashed;
+                replaced++;
+            }
+            if (u.creditPIN == stored) {
+                u.creditPIN = hashed;
+                replaced++;
+            }
+            return replaced;
+        });
+    }
+
+    private void indexCards(User u) {
+        if (!cards.add(u))
+            System.out.println("Error indexing cards of " + u.username + ": card number invalid or already issued");
+    }
+
+    private static Result done(String message) {
+        return new Result(true, message, null, CompletableFuture.completedFuture(null));
+    }
+}
@@ -0,0 +1,54 @@
+import jdk.jfr.*;
+
+// Java Flight Recorder events for the storage and card paths, so a stalled commit or a slow
+// startup can be lined up against GC pauses, safepoints and file I/O in the same recording.
+// They cost nothing unless a recording has them enabled. bank.jfc turns them on with
+// thresholds meant for production; to record with it alongside the JDK's own defaults:
+//
+//   java -XX:StartFlightRecording:settings=default,settings=bank.jfc,filename=bank.jfr ...
+//
+// or on a running bank: jcmd <pid> JFR.start settings=default settings=/path/to/bank.jfc
+class BankEvents {
+    @Name("bank.Flush")
+    @Label("Persistence Flush")
+    @Category({ "Bank", "Storage" })
+    @Description("A group commit to the journal, or a snapshot of every account")
+    @StackTrace(false)
+    static class Flush extends Event {
+        @Label("Kind")
+        @Description("journal or snapshot")
+        String kind;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+
+        @Label("Users Serialized")
+        @Description("Journal records, or accounts in the snapshot")
+        int users;
+    }
+
+    @Name("bank.LoadPhase")
+    @Label("Load Phase")
+    @Category({ "Bank", "Storage" })
+    @Description("One phase of loading the accounts at startup")
+    @StackTrace(false)
+    static class LoadPhase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("bank.CardAuthorization")
+    @Label("Card Authorization")
+    @Category({ "Bank", "Cards" })
+    @Description("A card payment, from the card checks to the debit being handed to the writer")
+    @StackTrace(false)
+    static class CardAuthorization extends Event {
+        @Label("Card Type")
+        String cardType;
+
+        @Label("Outcome")
+        @Description("approved, or the reason it was refused as in the metrics")
+        String outcome;
+    }
+}
@@ -0,0 +1,167 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+
+// Drives a running BankServer from a number of client threads, each logged in as one of the
+// given accounts and sending requests back to back, and reports throughput and latency.
+//
+//   java BankLoadClient [url] [threads] [seconds] [user:password,user:password,...]
+//
+// Defaults to http://localhost:8080, 16 threads, 10 seconds and the john account. The mix is
+// mostly balance checks and deposits, with withdrawals, FD transfers and the odd history
+// request.
+class BankLoadClient {
+    private final String url;
+    private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5)).build();
+
+    BankLoadClient(String url) {
+        this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    // Latencies in nanoseconds, sorted, plus what went wrong
+    static class Report {
+        long[] latencies;
+        long errors;
+        long elapsedNanos;
+
+        double requestsPerSecond() {
+            return latencies.length / (elapsedNanos / 1e9);
+        }
+
+        double percentileMillis(double p) {
+            if (latencies.length == 0)
+                return 0;
+            int i = (int) Math.ceil(p / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(i, latencies.length - 1))] / 1e6;
+        }
+
+        void print() {
+            System.out.printf("%,d requests in %.1f s, %,d errors%n", latencies.length, elapsedNanos / 1e9, errors);
+            System.out.printf("%,.0f requests/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", requestsPerSecond(),
+                    percentileMillis(50), percentileMillis(99), percentileMillis(100));
+        }
+    }
+
+    public Report run(int threadCount, int seconds, List<String[]> credentials) throws Exception {
+        String[] tokens = new String[credentials.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            String[] c = credentials.get(i);
+            HttpResponse<String> r = post("/login", null, Json.object("username", c[0], "password", c[1]));
+            if (r.statusCode() != 200)
+                throw new IllegalStateException("Login failed for " + c[0] + ": " + r.body());
+            tokens[i] = Json.parseObject(r.body()).get("token");
+        }
+
+        long[][] latencies = new long[threadCount][];
+        int[] counts = new int[threadCount];
+        long[] errors = new long[threadCount];
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Thread[] threads = new Thread[threadCount];
+        long start = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            String token = tokens[t % tokens.length];
+            threads[t] = new Thread(() -> {
+                Random rand = new Random(id);
+                long[] mine = new long[4096];
+                int n = 0;
+                while (System.nanoTime() < deadline) {
+                    int op = rand.nextInt(100);
+                    String amount = Money.format(100 + rand.nextInt(10000));
+                    long begin = System.nanoTime();
+                    int status;
+                    try {
+                        HttpResponse<String> r;
+                        if (op < 40) {
+                            r = get("/balance", token);
+                        } else if (op < 70) {
+                            r = post("/deposit", token, Json.object("amount", amount));
+                        } else if (op < 85) {
+                            r = post("/withdraw", token, Json.object("amount", amount));
+                        } else if (op < 97) {
+                            r = post("/fd/transfer", token, Json.object("amount", amount));
+                        } else {
+                            r = get("/history", token);
+                        }
+                        status = r.statusCode();
+                    } catch (Exception e) {
+                        status = -1;
+                    }
+                    long latency = System.nanoTime() - begin;
+                    // 422 is a refused operation (say, an empty balance), which is still an answer
+                    if (status != 200 && status != 422) {
+                        errors[id]++;
+                        continue;
+                    }
+                    if (n == mine.length)
+                        mine = Arrays.copyOf(mine, n * 2);
+                    mine[n++] = latency;
+                }
+                latencies[id] = mine;
+                counts[id] = n;
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Report report = new Report();
+        report.elapsedNanos = System.nanoTime() - start;
+        int total = 0;
+        for (int t = 0; t < threadCount; t++) {
+            total += counts[t];
+            report.errors += errors[t];
+        }
+        report.latencies = new long[total];
+        int pos = 0;
+        for (int t = 0; t < threadCount; t++) {
+            System.arraycopy(latencies[t], 0, report.latencies, pos, counts[t]);
+            pos += counts[t];
+        }
+        Arrays.sort(report.latencies);
+        return report;
+    }
+
+    private HttpResponse<String> get(String path, String token) throws Exception {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url + path)).GET();
+        return send(b, token);
+    }
+
+    private HttpResponse<String> post(String path, String token, String json) throws Exception {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url + path))
+                .header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(json));
+        return send(b, token);
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder b, String token) throws Exception {
+        if (token != null)
+            b.header("Authorization", "Bearer " + token);
+        return http.send(b.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    static List<String[]> parseCredentials(String s) {
+        ArrayList<String[]> list = new ArrayList<>();
+        for (String pair : s.split(",")) {
+            int colon = pair.indexOf(':');
+            if (colon > 0)
+                list.add(new String[] { pair.substring(0, colon), pair.substring(colon + 1) });
+        }
+        return list;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "http://localhost:8080";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        List<String[]> credentials = parseCredentials(args.length > 3 ? args[3] : "john:john123");
+
+        System.out.println("Load against " + url + ": " + threads + " threads, " + seconds + " s, "
+                + credentials.size() + " accounts");
+        new BankLoadClient(url).run(threads, seconds, credentials).print();
+    }
+}
@@ -1,224 +1,13 @@
 import java.awt.*;
 import java.io.*;
 import java.util.*;
-import java.text.SimpleDateFormat;
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 
-class Transaction {
-    String type; // "Deposit", "Withdraw", "FD_Transfer", "FD_Withdraw", "Card_Payment"
-    double amount;
-    String date;
-    String description;
-    String cardType; // "Debit" or "Credit" for card payments
-
-    public Transaction(String type, double amount, String description, String cardType) {
-        this.type = type;
-        this.amount = amount;
-        this.description = description;
-        this.cardType = cardType;
-        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
-        this.date = sdf.format(new Date());
-    }
-
-    public String toString() {
-        return type + "|" + amount + "|" + date + "|" + description + "|" + cardType;
-    }
-
-    public static Transaction fromString(String str) {
-        String[] parts = str.split("\\|");
-        if (parts.length >= 4) {
-            Transaction t = new Transaction(parts[0], Double.parseDouble(parts[1]),
-                    parts.length > 3 ? parts[3] : "", parts.length > 4 ? parts[4] : "");
-            if (parts.length > 2)
-                t.date = parts[2];
-            return t;
-        }
-        return null;
-    }
-}
-
-class User {
-    String username;
-    String password;
-    double balance;
-    double fdBalance;
-
-    // Debit Card Details
-    String debitCardNumber;
-    String debitCVV;
-    String debitExpiryDate;
-    String debitCardType; // Visa, Master, RuPay
-    String debitPIN; // 4-digit PIN
-    boolean tapToPayEnabled;
-    double monthlySpendingLimit;
-    double dailySpendingLimit;
-    double monthlySpent;
-    double dailySpent;
-
-    // Credit Card Details
-    String creditCardNumber;
-    String creditCVV;
-    String creditExpiryDate;
-    String creditPIN; // 4-digit PIN
-    double creditLimit;
-    double creditUsed;
-    int pendingEMIs;
-    int cibilScore;
-
-    // Transaction History
-    ArrayList<Transaction> transactionHistory;
-
-    public User(String username, String password, double balance, double fdBalance) {
-        this.username = username;
-        this.password = password;
-        this.balance = balance;
-        this.fdBalance = fdBalance;
-
-        // Initialize debit card with default values
-        this.debitCardNumber = generateCardNumber();
-        this.debitCVV = generateCVV();
-        this.debitExpiryDate = generateExpiryDate();
-        this.debitCardType = generateCardType();
-        this.debitPIN = generatePIN();
-        this.tapToPayEnabled = true;
-        this.monthlySpendingLimit = 100000;
-        this.dailySpendingLimit = 50000;
-        this.monthlySpent = 0;
-        this.dailySpent = 0;
-
-        // Initialize credit card with default values
-        this.creditCardNumber = generateCardNumber();
-        this.creditCVV = generateCVV();
-        this.creditExpiryDate = generateExpiryDate();
-        this.creditPIN = generatePIN();
-        this.creditLimit = 50000;
-        this.creditUsed = 0;
-        this.pendingEMIs = 0;
-        this.cibilScore = 750;
-
-        // Initialize transaction history
-        this.transactionHistory = new ArrayList<>();
-    }
-
-    // Constructor for loading from file
-    public User(String username, String password, double balance, double fdBalance,
-            String debitCardNumber, String debitCVV, String debitExpiryDate, String debitCardType,
-            String debitPIN, boolean tapToPayEnabled, double monthlySpendingLimit, double dailySpendingLimit,
-            double monthlySpent, double dailySpent,
-            String creditCardNumber, String creditCVV, String creditExpiryDate, String creditPIN,
-            double creditLimit, double creditUsed, int pendingEMIs, int cibilScore,
-            ArrayList<Transaction> transactionHistory) {
-        this.username = username;
-        this.password = password;
-        this.balance = balance;
-        this.fdBalance = fdBalance;
-        this.debitCardNumber = debitCardNumber;
-        this.debitCVV = debitCVV;
-        this.debitExpiryDate = debitExpiryDate;
-        this.debitCardType = debitCardType;
-        this.debitPIN = debitPIN;
-        this.tapToPayEnabled = tapToPayEnabled;
-        this.monthlySpendingLimit = monthlySpendingLimit;
-        this.dailySpendingLimit = dailySpendingLimit;
-        this.monthlySpent = monthlySpent;
-        this.dailySpent = dailySpent;
-        this.creditCardNumber = creditCardNumber;
-        this.creditCVV = creditCVV;
-        this.creditExpiryDate = creditExpiryDate;
-        this.creditPIN = creditPIN;
-        this.creditLimit = creditLimit;
-        this.creditUsed = creditUsed;
-        this.pendingEMIs = pendingEMIs;
-        this.cibilScore = cibilScore;
-        this.transactionHistory = transactionHistory != null ? transactionHistory : new ArrayList<>();
-    }
-
-    private String generateCardNumber() {
-        Random rand = new Random();
-        StringBuilder card = new StringBuilder();
-        for (int i = 0; i < 16; i++) {
-            if (i > 0 && i % 4 == 0) {
-                card.append(" ");
-            }
-            card.append(rand.nextInt(10));
-        }
-        return card.toString();
-    }
-
-    private String generateCVV() {
-        Random rand = new Random();
-        return String.format("%03d", rand.nextInt(1000));
-    }
-
-    private String generateExpiryDate() {
-        Random rand = new Random();
-        int month = rand.nextInt(12) + 1;
-        int year = 2025 + rand.nextInt(5);
-        return String.format("%02d/%d", month, year);
-    }
-
-    private String generateCardType() {
-        String[] types = { "Visa", "Master", "RuPay" };
-        Random rand = new Random();
-        return types[rand.nextInt(types.length)];
-    }
-
-    private String generatePIN() {
-        Random rand = new Random();
-        return String.format("%04d", rand.nextInt(10000));
-    }
-
-    public void addTransaction(Transaction transaction) {
-        if (transactionHistory == null) {
-            transactionHistory = new ArrayList<>();
-        }
-        transactionHistory.add(transaction);
-    }
-
-    public void addInterestOnce() {
-        double interest = fdBalance * 0.05; // 5% interest rate
-        fdBalance += interest;
-    }
-
-    public double getAvailableCredit() {
-        return creditLimit - creditUsed;
-    }
-
-    
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(username).append(",").append(password).append(",").append(balance).append(",").append(fdBalance)
-                .append(",");
-        sb.append(debitCardNumber).append(",").append(debitCVV).append(",").append(debitExpiryDate).append(",")
-                .append(debitCardType).append(",");
-        sb.append(debitPIN != null ? debitPIN : generatePIN()).append(",");
-        sb.append(tapToPayEnabled).append(",").append(monthlySpendingLimit).append(",").append(dailySpendingLimit)
-                .append(",");
-        sb.append(monthlySpent).append(",").append(dailySpent).append(",");
-        sb.append(creditCardNumber).append(",").append(creditCVV).append(",").append(creditExpiryDate).append(",");
-        sb.append(creditPIN != null ? creditPIN : generatePIN()).append(",");
-        sb.append(creditLimit).append(",").append(creditUsed).append(",").append(pendingEMIs).append(",")
-                .append(cibilScore);
-
-        // Add transaction count
-        if (transactionHistory != null) {
-            sb.append(",").append(transactionHistory.size());
-            for (Transaction t : transactionHistory) {
-                sb.append(",").append(t.toString().replace(",", ";;"));
-            }
-        } else {
-            sb.append(",0");
-        }
-
-        return sb.toString();
-    }
-}
-
 public class BankManagementSystemGUI_TextFile extends JFrame {
-    private static final String FILE_NAME = "bank_users.txt";
-    private static HashMap<String, User> users = new HashMap<>();
+    private static final long serialVersionUID = 1L;
+    private static BankEngine engine = new BankEngine(new File("."));
     private User currentUser;
 
     private CardLayout cardLayout;
@@ -226,7 +15,6 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
     private JTextField usernameField;
     private JPasswordField passwordField;
     private JLabel balanceLabel, fdLabel, messageLabel;
-    private boolean interestAddedThisSession = false;
 
     public BankManagementSystemGUI_TextFile() {
         setTitle("🏦 Bank Of Modi - Banking System");
@@ -235,7 +23,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         setLocationRelativeTo(null);
         setResizable(false);
 
-        loadUsers();
+        engine.open();
 
         cardLayout = new CardLayout();
         mainPanel = new JPanel(cardLayout);
@@ -359,6 +147,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
             JButton editUserBtn = new JButton("Edit User");
             JButton deleteUserBtn = new JButton("Delete User");
             JButton viewAllBtn = new JButton("View All Users");
+            JButton reissueBtn = new JButton("Reissue Card PIN/CVV");
             JButton logoutBtn = new JButton("Logout");
             JButton exitBtn = new JButton("Exit");
 
@@ -366,6 +155,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
             buttonPanel.add(editUserBtn);
             buttonPanel.add(deleteUserBtn);
             buttonPanel.add(viewAllBtn);
+            buttonPanel.add(reissueBtn);
             buttonPanel.add(logoutBtn);
             buttonPanel.add(exitBtn);
 
@@ -373,9 +163,10 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
             editUserBtn.addActionListener(e -> editUser());
             deleteUserBtn.addActionListener(e -> deleteUser());
             viewAllBtn.addActionListener(e -> viewAllUsers());
+            reissueBtn.addActionListener(e -> reissueCardSecrets());
             logoutBtn.addActionListener(e -> logout());
             exitBtn.addActionListener(e -> {
-                saveUsers();
+                engine.close();
                 System.exit(0);
             });
         } else {
@@ -384,6 +175,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
             JButton withdrawBtn = new JButton("Withdraw");
             JButton fdBtn = new JButton("Transfer to FD");
             JButton withdrawFDBtn = new JButton("Withdraw from FD");
+            JButton transferBtn = new JButton("Transfer to User");
             JButton debitCardBtn = new JButton("💳 Debit Card");
             JButton creditCardBtn = new JButton("💳 Credit Card");
             JButton payCardBtn = new JButton("💳 Pay from Card");
@@ -391,12 +183,13 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
             JButton logoutBtn = new JButton("Logout");
             JButton exitBtn = new JButton("Exit");
 
-            buttonPanel.setLayout(new GridLayout(5, 2, 10, 10));
+            buttonPanel.setLayout(new GridLayout(6, 2, 10, 10));
             buttonPanel.add(viewBtn);
             buttonPanel.add(depositBtn);
             buttonPanel.add(withdrawBtn);
             buttonPanel.add(fdBtn);
             buttonPanel.add(withdrawFDBtn);
+            buttonPanel.add(transferBtn);
             buttonPanel.add(debitCardBtn);
             buttonPanel.add(creditCardBtn);
             buttonPanel.add(payCardBtn);
@@ -409,13 +202,14 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
             withdrawBtn.addActionListener(e -> withdrawMoney());
             fdBtn.addActionListener(e -> transferToFD());
             withdrawFDBtn.addActionListener(e -> withdrawFromFD());
+            transferBtn.addActionListener(e -> transferToUser());
             debitCardBtn.addActionListener(e -> viewDebitCard());
             creditCardBtn.addActionListener(e -> viewCreditCard());
             payCardBtn.addActionListener(e -> payFromCard());
             historyBtn.addActionListener(e -> viewTransactionHistory());
             logoutBtn.addActionListener(e -> logout());
             exitBtn.addActionListener(e -> {
-                saveUsers();
+                engine.close();
                 System.exit(0);
             });
         }
@@ -430,38 +224,29 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         String username = usernameField.getText().trim();
         String password = new String(passwordField.getPassword()).trim();
 
-        if (users.containsKey(username)) {
-            User u = users.get(username);
-            if (u.password.equals(password)) {
-                currentUser = u;
-                messageLabel.setText("Welcome, " + username + "!");
-                updateDashboardButtons();
-
-                // Add interest only once per login (not repeatedly)
-                interestAddedThisSession = false;
-                if (!username.equalsIgnoreCase("admin")) {
-                    currentUser.addInterestOnce();
-                    interestAddedThisSession = true;
-                }
-
-                updateDashboard();
-                cardLayout.show(mainPanel, "Dashboard");
-                return;
-            }
+        User u = offEventThread(() -> engine.authenticate(username, password));
+        if (u != null) {
+            currentUser = u;
+            messageLabel.setText("Welcome, " + username + "!");
+            updateDashboardButtons();
+            updateDashboard();
+            cardLayout.show(mainPanel, "Dashboard");
+            return;
         }
         JOptionPane.showMessageDialog(this, "Invalid username or password!", "Error", JOptionPane.ERROR_MESSAGE);
     }
 
     private void updateDashboard() {
-        balanceLabel.setText("Balance: ₹" + currentUser.balance);
-        fdLabel.setText("FD Balance: ₹" + currentUser.fdBalance);
+        balanceLabel.setText("Balance: ₹" + Money.format(currentUser.balance));
+        fdLabel.setText("FD Balance: ₹" + Money.format(currentUser.fdBalance));
     }
 
     private void viewBalance() {
         // ❌ No interest added again here!
         updateDashboard();
         JOptionPane.showMessageDialog(this,
-                "Balance: ₹" + currentUser.balance + "\nFixed Deposit: ₹" + currentUser.fdBalance,
+                "Balance: ₹" + Money.format(currentUser.balance) + "\nFixed Deposit: ₹"
+                        + Money.format(currentUser.fdBalance),
                 "Account Details", JOptionPane.INFORMATION_MESSAGE);
     }
 
@@ -469,17 +254,14 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         String input = JOptionPane.showInputDialog(this, "Enter amount to deposit:");
         if (input != null && !input.isEmpty()) {
             try {
-                double amt = Double.parseDouble(input);
-                if (amt > 0) {
-                    currentUser.balance += amt;
-                    currentUser.addTransaction(new Transaction("Deposit", amt, "Cash Deposit", ""));
-                    saveUsers();
+                BankEngine.Result r = engine.deposit(currentUser, Money.parse(input));
+                if (r.ok) {
+                    whenDurable(r, () -> messageLabel.setText(r.message));
                     updateDashboard();
-                    messageLabel.setText("Deposited ₹" + amt + " successfully!");
                 } else {
-                    messageLabel.setText("Invalid amount!");
+                    messageLabel.setText(r.message);
                 }
-            } catch (NumberFormatException ex) {
+            } catch (NumberFormatException | ArithmeticException ex) {
                 messageLabel.setText("Please enter a valid number!");
             }
         }
@@ -489,17 +271,14 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         String input = JOptionPane.showInputDialog(this, "Enter amount to withdraw:");
         if (input != null && !input.isEmpty()) {
             try {
-                double amt = Double.parseDouble(input);
-                if (amt > 0 && amt <= currentUser.balance) {
-                    currentUser.balance -= amt;
-                    currentUser.addTransaction(new Transaction("Withdraw", amt, "Cash Withdrawal", ""));
-                    saveUsers();
+                BankEngine.Result r = engine.withdraw(currentUser, Money.parse(input));
+                if (r.ok) {
+                    whenDurable(r, () -> messageLabel.setText(r.message));
                     updateDashboard();
-                    messageLabel.setText("Withdrawn ₹" + amt + " successfully!");
                 } else {
-                    messageLabel.setText("Insufficient balance or invalid amount!");
+                    messageLabel.setText(r.message);
                 }
-            } catch (NumberFormatException ex) {
+            } catch (NumberFormatException | ArithmeticException ex) {
                 messageLabel.setText("Please enter a valid number!");
             }
         }
@@ -509,18 +288,14 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         String input = JOptionPane.showInputDialog(this, "Enter amount to transfer to FD:");
         if (input != null && !input.isEmpty()) {
             try {
-                double amt = Double.parseDouble(input);
-                if (amt > 0 && amt <= currentUser.balance) {
-                    currentUser.balance -= amt;
-                    currentUser.fdBalance += amt;
-                    currentUser.addTransaction(new Transaction("FD_Transfer", amt, "Transfer to Fixed Deposit", ""));
-                    saveUsers();
+                BankEngine.Result r = engine.transferToFD(currentUser, Money.parse(input));
+                if (r.ok) {
+                    whenDurable(r, () -> messageLabel.setText(r.message));
                     updateDashboard();
-                    messageLabel.setText("Transferred ₹" + amt + " to FD successfully!");
                 } else {
-                    messageLabel.setText("Invalid or insufficient balance!");
+                    messageLabel.setText(r.message);
                 }
-            } catch (NumberFormatException ex) {
+            } catch (NumberFormatException | ArithmeticException ex) {
                 messageLabel.setText("Please enter a valid number!");
             }
         }
@@ -530,19 +305,34 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         String input = JOptionPane.showInputDialog(this, "Enter amount to withdraw from FD:");
         if (input != null && !input.isEmpty()) {
             try {
-                double amt = Double.parseDouble(input);
-                if (amt > 0 && amt <= currentUser.fdBalance) {
-                    currentUser.fdBalance -= amt;
-                    currentUser.balance += amt;
-                    currentUser
-                            .addTransaction(new Transaction("FD_Withdraw", amt, "Withdrawal from Fixed Deposit", ""));
-                    saveUsers();
+                BankEngine.Result r = engine.withdrawFromFD(currentUser, Money.parse(input));
+                if (r.ok) {
+                    whenDurable(r, () -> messageLabel.setText(r.message));
                     updateDashboard();
-                    messageLabel.setText("Withdrawn ₹" + amt + " from FD successfully!");
                 } else {
-                    messageLabel.setText("Insufficient FD balance or invalid amount!");
+                    messageLabel.setText(r.message);
                 }
-            } catch (NumberFormatException ex) {
+            } catch (NumberFormatException | ArithmeticException ex) {
+                messageLabel.setText("Please enter a valid number!");
+            }
+        }
+    }
+
+    private void transferToUser() {
+        String to = JOptionPane.showInputDialog(this, "Enter recipient username:");
+        if (to == null || to.trim().isEmpty())
+            return;
+        String input = JOptionPane.showInputDialog(this, "Enter amount to transfer to " + to.trim() + ":");
+        if (input != null && !input.isEmpty()) {
+            try {
+                BankEngine.Result r = engine.transfer(currentUser, to.trim(), Money.parse(input));
+                if (r.ok) {
+                    whenDurable(r, () -> messageLabel.setText(r.message));
+                    updateDashboard();
+                } else {
+                    messageLabel.setText(r.message);
+                }
+            } catch (NumberFormatException | ArithmeticException ex) {
                 messageLabel.setText("Please enter a valid number!");
             }
         }
@@ -573,18 +363,17 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
                 return;
             }
 
-            if (users.containsKey(uname)) {
+            if (engine.find(uname) != null) {
                 JOptionPane.showMessageDialog(this, "User already exists!");
                 return;
             }
 
             try {
-                double bal = Double.parseDouble(balanceField.getText().trim());
-                double fd = Double.parseDouble(fdField.getText().trim());
-                users.put(uname, new User(uname, pass, bal, fd));
-                saveUsers();
-                JOptionPane.showMessageDialog(this, "New user '" + uname + "' added successfully!");
-            } catch (NumberFormatException e) {
+                long bal = Money.parse(balanceField.getText());
+                long fd = Money.parse(fdField.getText());
+                BankEngine.Result r = offEventThread(() -> engine.addUser(uname, pass, bal, fd));
+                JOptionPane.showMessageDialog(this, r.message);
+            } catch (NumberFormatException | ArithmeticException e) {
                 JOptionPane.showMessageDialog(this, "Enter valid numeric values for balances!");
             }
         }
@@ -594,18 +383,19 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         String uname = JOptionPane.showInputDialog(this, "Enter username to edit:");
         if (uname == null || uname.trim().isEmpty())
             return;
-        if (!users.containsKey(uname)) {
+        User u = engine.find(uname);
+        if (u == null) {
             JOptionPane.showMessageDialog(this, "User not found!");
             return;
         }
 
-        User u = users.get(uname);
-        JTextField passField = new JTextField(u.password);
-        JTextField balanceField = new JTextField(String.valueOf(u.balance));
-        JTextField fdField = new JTextField(String.valueOf(u.fdBalance));
+        // Only a hash of the password is kept, so it can be replaced but not shown
+        JTextField passField = new JTextField();
+        JTextField balanceField = new JTextField(Money.format(u.balance));
+        JTextField fdField = new JTextField(Money.format(u.fdBalance));
 
         Object[] fields = {
-                "Password:", passField,
+                "New Password (blank keeps it):", passField,
                 "Balance:", balanceField,
                 "FD Balance:", fdField
         };
@@ -614,12 +404,13 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
 
         if (option == JOptionPane.OK_OPTION) {
             try {
-                u.password = passField.getText().trim();
-                u.balance = Double.parseDouble(balanceField.getText().trim());
-                u.fdBalance = Double.parseDouble(fdField.getText().trim());
-                saveUsers();
-                JOptionPane.showMessageDialog(this, "User '" + uname + "' updated successfully!");
-            } catch (NumberFormatException e) {
+                // Parse both before touching the account so a bad value changes nothing
+                long bal = Money.parse(balanceField.getText());
+                long fd = Money.parse(fdField.getText());
+                String pass = passField.getText().trim();
+                BankEngine.Result r = offEventThread(() -> engine.editUser(uname, pass, bal, fd));
+                JOptionPane.showMessageDialog(this, r.message);
+            } catch (NumberFormatException | ArithmeticException e) {
                 JOptionPane.showMessageDialog(this, "Enter valid numbers for balances!");
             }
         }
@@ -629,7 +420,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         String uname = JOptionPane.showInputDialog(this, "Enter username to delete:");
         if (uname == null || uname.trim().isEmpty())
             return;
-        if (!users.containsKey(uname)) {
+        if (engine.find(uname) == null) {
             JOptionPane.showMessageDialog(this, "User not found!");
             return;
         }
@@ -642,19 +433,37 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         int confirm = JOptionPane.showConfirmDialog(this, "Are you sure to delete '" + uname + "'?", "Confirm Delete",
                 JOptionPane.YES_NO_OPTION);
         if (confirm == JOptionPane.YES_OPTION) {
-            users.remove(uname);
-            saveUsers();
-            JOptionPane.showMessageDialog(this, "User '" + uname + "' deleted successfully!");
+            JOptionPane.showMessageDialog(this, offEventThread(() -> engine.deleteUser(uname)).message);
         }
     }
 
+    // The only way to a card's PIN and CVV once they are hashed: new ones, shown here once
+    private void reissueCardSecrets() {
+        String uname = JOptionPane.showInputDialog(this, "Enter username whose card to reissue:");
+        if (uname == null || uname.trim().isEmpty())
+            return;
+        if (engine.find(uname) == null) {
+            JOptionPane.showMessageDialog(this, "User not found!");
+            return;
+        }
+
+        String[] cardTypes = { CardIndex.DEBIT, CardIndex.CREDIT };
+        int choice = JOptionPane.showOptionDialog(this, "New PIN and CVV for which card of '" + uname + "'?",
+                "Reissue Card PIN/CVV", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, cardTypes,
+                cardTypes[0]);
+        if (choice < 0)
+            return;
+        BankEngine.Result r = offEventThread(() -> engine.reissueCardSecrets(uname, cardTypes[choice]));
+        JOptionPane.showMessageDialog(this, r.message);
+    }
+
     private void viewAllUsers() {
         String[] columns = { "Username", "Balance (₹)", "FD Balance (₹)" };
         DefaultTableModel model = new DefaultTableModel(columns, 0);
 
-        for (User u : users.values()) {
+        for (User u : engine.users()) {
             if (!u.username.equalsIgnoreCase("admin")) {
-                model.addRow(new Object[] { u.username, u.balance, u.fdBalance });
+                model.addRow(new Object[] { u.username, Money.format(u.balance), Money.format(u.fdBalance) });
             }
         }
 
@@ -745,7 +554,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
 
         JPanel cardBottomPanel = new JPanel(new BorderLayout());
         cardBottomPanel.setOpaque(false);
-        JLabel cvvLabel = new JLabel("CVV: " + u.debitCVV);
+        JLabel cvvLabel = new JLabel("CVV: " + (Credentials.isHashed(u.debitCVV) ? "***" : u.debitCVV));
         cvvLabel.setFont(new Font("Arial", Font.BOLD, 14));
         cvvLabel.setForeground(Color.WHITE);
         JLabel expiryLabel = new JLabel("Exp: " + u.debitExpiryDate);
@@ -775,15 +584,18 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         JPanel limitsPanel = createInfoSection("Spending Limits");
 
         // Monthly Limit
-        double monthlyPercent = (u.monthlySpent / u.monthlySpendingLimit) * 100;
-        limitsPanel.add(createLimitRow("Monthly Limit", u.monthlySpendingLimit, u.monthlySpent,
-                u.monthlySpendingLimit - u.monthlySpent, monthlyPercent, new Color(102, 126, 234)));
+        long today = engine.today();
+        long monthlySpent = u.getMonthlySpent(today);
+        double monthlyPercent = ((double) monthlySpent / u.monthlySpendingLimit) * 100;
+        limitsPanel.add(createLimitRow("Monthly Limit", u.monthlySpendingLimit, monthlySpent,
+                u.monthlySpendingLimit - monthlySpent, monthlyPercent, new Color(102, 126, 234)));
         limitsPanel.add(Box.createVerticalStrut(10));
 
         // Daily Limit
-        double dailyPercent = (u.dailySpent / u.dailySpendingLimit) * 100;
-        limitsPanel.add(createLimitRow("Daily Limit", u.dailySpendingLimit, u.dailySpent,
-                u.dailySpendingLimit - u.dailySpent, dailyPercent, new Color(240, 147, 251)));
+        long dailySpent = u.getDailySpent(today);
+        double dailyPercent = ((double) dailySpent / u.dailySpendingLimit) * 100;
+        limitsPanel.add(createLimitRow("Daily Limit", u.dailySpendingLimit, dailySpent,
+                u.dailySpendingLimit - dailySpent, dailyPercent, new Color(240, 147, 251)));
 
         contentPanel.add(limitsPanel);
 
@@ -834,7 +646,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         return panel;
     }
 
-    private JPanel createLimitRow(String label, double limit, double spent, double remaining, double percent,
+    private JPanel createLimitRow(String label, long limit, long spent, long remaining, double percent,
             Color color) {
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
@@ -844,7 +656,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         topPanel.setBackground(Color.WHITE);
         JLabel labelLbl = new JLabel(label + ":");
         labelLbl.setFont(new Font("Arial", Font.PLAIN, 12));
-        JLabel limitLbl = new JLabel("₹" + String.format("%.2f", limit));
+        JLabel limitLbl = new JLabel("₹" + Money.format(limit));
         limitLbl.setFont(new Font("Arial", Font.BOLD, 14));
         limitLbl.setForeground(color);
         topPanel.add(labelLbl, BorderLayout.WEST);
@@ -866,10 +678,10 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
 
         JPanel bottomPanel = new JPanel(new BorderLayout());
         bottomPanel.setBackground(Color.WHITE);
-        JLabel spentLbl = new JLabel("Spent: ₹" + String.format("%.2f", spent));
+        JLabel spentLbl = new JLabel("Spent: ₹" + Money.format(spent));
         spentLbl.setFont(new Font("Arial", Font.PLAIN, 11));
         spentLbl.setForeground(new Color(100, 100, 100));
-        JLabel remainingLbl = new JLabel("Remaining: ₹" + String.format("%.2f", remaining));
+        JLabel remainingLbl = new JLabel("Remaining: ₹" + Money.format(remaining));
         remainingLbl.setFont(new Font("Arial", Font.PLAIN, 11));
         remainingLbl.setForeground(new Color(100, 100, 100));
         bottomPanel.add(spentLbl, BorderLayout.WEST);
@@ -960,7 +772,7 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
 
         JPanel cardBottomPanel = new JPanel(new BorderLayout());
         cardBottomPanel.setOpaque(false);
-        JLabel cvvLabel = new JLabel("CVV: " + u.creditCVV);
+        JLabel cvvLabel = new JLabel("CVV: " + (Credentials.isHashed(u.creditCVV) ? "***" : u.creditCVV));
         cvvLabel.setFont(new Font("Arial", Font.BOLD, 14));
         cvvLabel.setForeground(Color.WHITE);
         JLabel expiryLabel = new JLabel("Exp: " + u.creditExpiryDate);
@@ -977,18 +789,18 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         JPanel creditPanel = createInfoSection("Credit Information");
         JPanel creditGrid = new JPanel(new GridLayout(1, 2, 10, 10));
 
-        double availableCredit = u.getAvailableCredit();
+        long availableCredit = u.getAvailableCredit();
         Color availColor = availableCredit > 0 ? new Color(0, 184, 148) : new Color(214, 48, 49);
-        JPanel limitPanel = createInfoBox("Credit Limit", "₹" + String.format("%.2f", u.creditLimit),
+        JPanel limitPanel = createInfoBox("Credit Limit", "₹" + Money.format(u.creditLimit),
                 new Color(214, 48, 49));
-        JPanel availPanel = createInfoBox("Available Credit", "₹" + String.format("%.2f", availableCredit), availColor);
+        JPanel availPanel = createInfoBox("Available Credit", "₹" + Money.format(availableCredit), availColor);
         creditGrid.add(limitPanel);
         creditGrid.add(availPanel);
         creditPanel.add(creditGrid);
         creditPanel.add(Box.createVerticalStrut(10));
 
         // Credit Utilization
-        double utilizationPercent = u.creditLimit > 0 ? (u.creditUsed / u.creditLimit) * 100 : 0;
+        double utilizationPercent = u.creditLimit > 0 ? ((double) u.creditUsed / u.creditLimit) * 100 : 0;
         creditPanel.add(createLimitRow("Credit Used", u.creditLimit, u.creditUsed,
                 availableCredit, utilizationPercent, new Color(240, 147, 251)));
         creditPanel.add(Box.createVerticalStrut(10));
@@ -1112,32 +924,8 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         headerPanel.add(titleLabel);
         mainPanel.add(headerPanel, BorderLayout.NORTH);
 
-        // Table
-        String[] columns = { "Date & Time", "Type", "Amount (₹)", "Description", "Card Type" };
-        DefaultTableModel model = new DefaultTableModel(columns, 0) {
-            
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
-
-        if (u.transactionHistory != null && !u.transactionHistory.isEmpty()) {
-            // Sort by date (newest first)
-            ArrayList<Transaction> sorted = new ArrayList<>(u.transactionHistory);
-            sorted.sort((a, b) -> b.date.compareTo(a.date));
-
-            for (Transaction t : sorted) {
-                model.addRow(new Object[] {
-                        t.date,
-                        t.type,
-                        String.format("%.2f", t.amount),
-                        t.description,
-                        t.cardType.isEmpty() ? "-" : t.cardType
-                });
-            }
-        } else {
-            model.addRow(new Object[] { "No transactions yet", "", "", "", "" });
-        }
+        // Table, newest first; rows are read from the history store as they scroll into view
+        HistoryTableModel model = new HistoryTableModel(engine.historyCursor(u));
 
         JTable table = new JTable(model);
         table.setFont(new Font("Arial", Font.PLAIN, 12));
@@ -1177,44 +965,23 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
 
     private void payFromCard() {
         User u = currentUser;
+        BankEngine.CardPayment payment = new BankEngine.CardPayment();
 
         // Step 1: Card Number
-        String cardNum = JOptionPane.showInputDialog(this, "Enter Card Number (16 digits):");
-        if (cardNum == null)
+        payment.cardNumber = JOptionPane.showInputDialog(this, "Enter Card Number (16 digits):");
+        if (payment.cardNumber == null || !checkCard(u, payment))
             return;
-        cardNum = cardNum.replaceAll("\\s+", "");
-
-        // Determine card type
-        boolean isDebit = cardNum.equals(u.debitCardNumber.replaceAll("\\s+", ""));
-        boolean isCredit = cardNum.equals(u.creditCardNumber.replaceAll("\\s+", ""));
-
-        if (!isDebit && !isCredit) {
-            JOptionPane.showMessageDialog(this, "Card number not found!", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-
-        String cardType = isDebit ? "Debit" : "Credit";
-        String cardCVV = isDebit ? u.debitCVV : u.creditCVV;
-        String cardExpiry = isDebit ? u.debitExpiryDate : u.creditExpiryDate;
-        String cardPIN = isDebit ? u.debitPIN : u.creditPIN;
+        String cardType = engine.cardType(u, payment.cardNumber);
 
         // Step 2: CVV
-        String cvv = JOptionPane.showInputDialog(this, "Enter CVV:");
-        if (cvv == null)
-            return;
-        if (!cvv.equals(cardCVV)) {
-            JOptionPane.showMessageDialog(this, "Invalid CVV!", "Error", JOptionPane.ERROR_MESSAGE);
+        payment.cvv = JOptionPane.showInputDialog(this, "Enter CVV:");
+        if (payment.cvv == null || !checkCard(u, payment))
             return;
-        }
 
         // Step 3: Expiry Date
-        String expiry = JOptionPane.showInputDialog(this, "Enter Expiry Date (MM/YYYY):");
-        if (expiry == null)
+        payment.expiryDate = JOptionPane.showInputDialog(this, "Enter Expiry Date (MM/YYYY):");
+        if (payment.expiryDate == null || !checkCard(u, payment))
             return;
-        if (!expiry.equals(cardExpiry)) {
-            JOptionPane.showMessageDialog(this, "Invalid Expiry Date!", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
 
         // Step 4: PIN
         JPasswordField pinField = new JPasswordField();
@@ -1224,11 +991,9 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
         if (pinOption != JOptionPane.OK_OPTION)
             return;
 
-        String pin = new String(pinField.getPassword());
-        if (!pin.equals(cardPIN)) {
-            JOptionPane.showMessageDialog(this, "Invalid PIN!", "Error", JOptionPane.ERROR_MESSAGE);
+        payment.pin = new String(pinField.getPassword());
+        if (!checkCard(u, payment))
             return;
-        }
 
         // Step 5: Amount
         String amountStr = JOptionPane.showInputDialog(this, "Enter payment amount:");
@@ -1236,64 +1001,35 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
             return;
 
         try {
-            double amount = Double.parseDouble(amountStr);
-            if (amount <= 0) {
-                JOptionPane.showMessageDialog(this, "Invalid amount!", "Error", JOptionPane.ERROR_MESSAGE);
+            payment.amount = Money.parse(amountStr);
+            BankEngine.Result r = offEventThread(() -> engine.payWithCard(u, payment));
+            if (!r.ok) {
+                JOptionPane.showMessageDialog(this, r.message, "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-
-            // Process payment
-            if (isDebit) {
-                // Check limits
-                if (u.dailySpent + amount > u.dailySpendingLimit) {
-                    JOptionPane.showMessageDialog(this,
-                            "Daily spending limit exceeded! Remaining: ₹" + (u.dailySpendingLimit - u.dailySpent),
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                if (u.monthlySpent + amount > u.monthlySpendingLimit) {
-                    JOptionPane.showMessageDialog(this,
-                            "Monthly spending limit exceeded! Remaining: ₹" + (u.monthlySpendingLimit - u.monthlySpent),
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                if (amount > u.balance) {
-                    JOptionPane.showMessageDialog(this, "Insufficient balance!", "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-
-                u.balance -= amount;
-                u.dailySpent += amount;
-                u.monthlySpent += amount;
-            } else {
-                // Credit card
-                if (u.creditUsed + amount > u.creditLimit) {
-                    JOptionPane.showMessageDialog(this,
-                            "Credit limit exceeded! Available: ₹" + u.getAvailableCredit(),
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-                u.creditUsed += amount;
-            }
-
-            // Add transaction
-            u.addTransaction(new Transaction("Card_Payment", amount,
-                    "Payment via " + cardType + " Card", cardType));
-            saveUsers();
+            whenDurable(r, () -> {
+                JOptionPane.showMessageDialog(this, r.message, "Success", JOptionPane.INFORMATION_MESSAGE);
+                messageLabel.setText("Payment of ₹" + Money.format(payment.amount) + " successful!");
+            });
             updateDashboard();
 
-            JOptionPane.showMessageDialog(this,
-                    "Payment of ₹" + amount + " successful using " + cardType + " Card!",
-                    "Success", JOptionPane.INFORMATION_MESSAGE);
-            messageLabel.setText("Payment of ₹" + amount + " successful!");
-
-        } catch (NumberFormatException ex) {
+        } catch (NumberFormatException | ArithmeticException ex) {
             JOptionPane.showMessageDialog(this, "Please enter a valid number!", "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
+    // Shows the problem with the card details entered so far, if there is one
+    private boolean checkCard(User u, BankEngine.CardPayment payment) {
+        String error = offEventThread(() -> engine.checkCard(u, payment));
+        if (error != null) {
+            JOptionPane.showMessageDialog(this, error, "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        return true;
+    }
+
+    // Every operation of the session is already in the journal
     private void logout() {
-        saveUsers();
         usernameField.setText("");
         passwordField.setText("");
         currentUser = null;
@@ -1301,92 +1037,51 @@ public class BankManagementSystemGUI_TextFile extends JFrame {
     }
 
     // ---------------------- FILE HANDLING ----------------------
-    private void loadUsers() {
-        users.clear();
-        File file = new File(FILE_NAME);
-
-        if (!file.exists()) {
-            users.put("admin", new User("admin", "1234", 10000, 5000));
-            users.put("john", new User("john", "john123", 8000, 3000));
-            saveUsers();
-            return;
-        }
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty())
-                    continue; // Skip empty lines
-                String[] parts = line.split(",");
-                if (parts.length == 4) {
-                    // Old format - create user with default card details
-                    users.put(parts[0],
-                            new User(parts[0], parts[1], Double.parseDouble(parts[2]), Double.parseDouble(parts[3])));
-                } else if (parts.length >= 20) {
-                    // Handle old format (20 fields) - add default PINs
-                    String debitPIN = parts.length > 20 ? parts[20] : "1234";
-                    String creditPIN = parts.length > 21 ? parts[21] : "1234";
-                    ArrayList<Transaction> transactions = new ArrayList<>();
-
-                    if (parts.length > 22) {
-                        int txCount = Integer.parseInt(parts[22]);
-                        for (int i = 0; i < txCount && (23 + i) < parts.length; i++) {
-                            String txStr = parts[23 + i].replace(";;", ",");
-                            Transaction tx = Transaction.fromString(txStr);
-                            if (tx != null)
-                                transactions.add(tx);
-                        }
-                    }
-
-                    if (parts.length >= 22) {
-                        // New format with PINs
-                        users.put(parts[0], new User(
-                                parts[0], parts[1],
-                                Double.parseDouble(parts[2]), Double.parseDouble(parts[3]),
-                                parts[4], parts[5], parts[6], parts[7],
-                                parts.length > 20 ? parts[20] : "1234", // debitPIN
-                                Boolean.parseBoolean(parts[8]),
-                                Double.parseDouble(parts[9]), Double.parseDouble(parts[10]),
-                                Double.parseDouble(parts[11]), Double.parseDouble(parts[12]),
-                                parts[13], parts[14], parts[15],
-                                parts.length > 21 ? parts[21] : "1234", // creditPIN
-                                Double.parseDouble(parts[16]), Double.parseDouble(parts[17]),
-                                Integer.parseInt(parts[18]), Integer.parseInt(parts[19]),
-                                transactions));
-                    } else {
-                        // Old format without PINs (20 fields)
-                        users.put(parts[0], new User(
-                                parts[0], parts[1],
-                                Double.parseDouble(parts[2]), Double.parseDouble(parts[3]),
-                                parts[4], parts[5], parts[6], parts[7],
-                                "1234", // default debitPIN
-                                Boolean.parseBoolean(parts[8]),
-                                Double.parseDouble(parts[9]), Double.parseDouble(parts[10]),
-                                Double.parseDouble(parts[11]), Double.parseDouble(parts[12]),
-                                parts[13], parts[14], parts[15],
-                                "1234", // default creditPIN
-                                Double.parseDouble(parts[16]), Double.parseDouble(parts[17]),
-                                Integer.parseInt(parts[18]), Integer.parseInt(parts[19]),
-                                transactions));
-                    }
-                } else {
-                    System.out.println("Warning: Skipping line with unexpected format: " + line);
-                }
+    // onDurable runs on the event thread once the operation is on disk
+    private void whenDurable(BankEngine.Result r, Runnable onDurable) {
+        r.durable.whenComplete((lsn, err) -> SwingUtilities.invokeLater(() -> {
+            if (err != null) {
+                JOptionPane.showMessageDialog(this, "Could not save the transaction: " + err.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                onDurable.run();
             }
-        } catch (Exception e) {
-            System.out.println("Error loading users: " + e.getMessage());
-            e.printStackTrace();
-        }
+        }));
     }
 
-    private void saveUsers() {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(FILE_NAME))) {
-            for (User u : users.values()) {
-                pw.println(u.toString());
+    // Runs work on a thread of its own while the event thread keeps painting, and returns its
+    // result. For calls that check or hash a credential or write a snapshot, which can take
+    // long enough to freeze the window; the window takes no input until they are done.
+    private <T> T offEventThread(java.util.function.Supplier<T> work) {
+        SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+        Object[] result = new Object[1];
+        RuntimeException[] failure = new RuntimeException[1];
+        Thread worker = new Thread(() -> {
+            try {
+                result[0] = work.get();
+            } catch (RuntimeException e) {
+                failure[0] = e;
+            } finally {
+                loop.exit();
             }
-        } catch (Exception e) {
-            System.out.println("Error saving users: " + e.getMessage());
+        }, "bank-gui-worker");
+        setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try {
+            worker.start();
+            loop.enter();
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            setCursor(Cursor.getDefaultCursor());
+            setEnabled(true);
         }
+        if (failure[0] != null)
+            throw failure[0];
+        @SuppressWarnings("unchecked")
+        T t = (T) result[0];
+        return t;
     }
 
     // ---------------------- MAIN ----------------------
@@ -0,0 +1,325 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The bank over HTTP with JSON bodies, for clients other than the Swing window. Every call
+// goes through BankEngine, so the rules, locking and durability are the same as in the GUI.
+//
+//   java BankServer [port] [data directory]
+//
+//   POST /login         {"username": "john", "password": "john123"}  -> {"token": ...}
+//   POST /logout
+//   GET  /balance
+//   POST /deposit       {"amount": "250.50"}
+//   POST /withdraw      {"amount": "250.50"}
+//   POST /fd/transfer   {"amount": "250.50"}
+//   POST /fd/withdraw   {"amount": "250.50"}
+//   POST /transfer      {"to": "admin", "amount": "250.50"}
+//   POST /card/pay      {"cardNumber": ..., "cvv": ..., "expiryDate": ..., "pin": ..., "amount": ...}
+//   POST /card/authorize  same body, charged to whichever account owns the card
+//   GET  /history
+//   GET  /statement       totals per month and transaction type
+//
+// Everything but /login and /card/authorize needs "Authorization: Bearer <token>". A token
+// lapses after -Dbank.server.sessionMinutes (default 30) without a request, and at once when
+// its account is deleted. /card/authorize needs only the card details; the engine locks a card
+// after a few wrong ones (see CardLockout). Operations answer once the change is on disk. A
+// refused operation is 422 with {"ok": false, "message": ...}.
+//
+// /login runs a deliberately slow password hash (see Credentials) before anyone is known, so
+// a client address gets -Dbank.server.guessesPerMinute failed logins (default 30) a minute and
+// 429 after that. A login counts as failed until it succeeds, so guesses sent at once cannot
+// get past the count. Card details are limited per card instead, by CardLockout.
+//
+// Requests run on virtual threads where the JVM has them (Java 21 and later) and otherwise
+// on a pool of -Dbank.server.threads platform threads (default 200).
+class BankServer {
+    static {
+        // The JDK server writes headers and body separately; with Nagle's algorithm on, every
+        // response on a kept-alive connection waits ~40 ms for the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final BankEngine engine;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long sessionNanos = Long.getLong("bank.server.sessionMinutes", 30) * 60_000_000_000L;
+    private final AtomicInteger logins = new AtomicInteger();
+    private final int guessesPerMinute = Integer.getInteger("bank.server.guessesPerMinute", 30);
+    private final ConcurrentHashMap<InetAddress, AtomicInteger> guesses = new ConcurrentHashMap<>();
+    private volatile long guessMinute; // the minute guesses counts failed logins for
+    private final SecureRandom random = new SecureRandom();
+
+    private static class Session {
+        final User user;
+        volatile long expires; // System.nanoTime()
+
+        Session(User user, long expires) {
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+
+    // An endpoint returns the JSON response body, or throws ApiError
+    interface Endpoint {
+        String handle(User u, Map<String, String> body);
+    }
+
+    static class ApiError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        ApiError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // Port 0 picks a free port, see port()
+    public BankServer(BankEngine engine, int port) throws IOException {
+        this.engine = engine;
+        server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("bank.server.backlog", 1024));
+        executor = newExecutor();
+        server.setExecutor(executor);
+
+        route("/login", "POST", false, (u, body) -> login(body));
+        route("/logout", "POST", true, (u, body) -> Json.object("ok", true));
+        route("/balance", "GET", true, (u, body) -> balance(u));
+        route("/deposit", "POST", true, (u, body) -> result(u, engine.deposit(u, amount(body))));
+        route("/withdraw", "POST", true, (u, body) -> result(u, engine.withdraw(u, amount(body))));
+        route("/fd/transfer", "POST", true, (u, body) -> result(u, engine.transferToFD(u, amount(body))));
+        route("/fd/withdraw", "POST", true, (u, body) -> result(u, engine.withdrawFromFD(u, amount(body))));
+        route("/transfer", "POST", true,
+                (u, body) -> result(u, engine.transfer(u, field(body, "to"), amount(body))));
+        route("/card/pay", "POST", true, (u, body) -> result(u, engine.payWithCard(u, cardPayment(body))));
+        route("/card/authorize", "POST", false, (u, body) -> result(null, engine.authorize(cardPayment(body))));
+        route("/history", "GET", true, (u, body) -> history(u));
+        route("/statement", "GET", true, (u, body) -> statement(u));
+        engine.onDelete(u -> sessions.values().removeIf(session -> session.user == u));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Waits up to delaySeconds for requests in progress, then stops accepting connections
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Integer.getInteger("bank.server.threads", 200));
+        }
+    }
+
+    // ---------------------- ENDPOINTS ----------------------
+    private String login(Map<String, String> body) {
+        // Sessions nobody came back for are dropped now and then
+        if ((logins.incrementAndGet() & 255) == 0) {
+            long now = System.nanoTime();
+            sessions.values().removeIf(session -> session.expires - now <= 0);
+        }
+        User u = engine.authenticate(field(body, "username"), field(body, "password"));
+        if (u == null)
+            throw new ApiError(401, "Invalid username or password!");
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        sessions.put(token.toString(), new Session(u, System.nanoTime() + sessionNanos));
+        return Json.object("ok", true, "token", token.toString(), "username", u.username);
+    }
+
+    private String balance(User u) {
+        long today = engine.today();
+        return Json.object("ok", true, "balance", Money.format(u.balance), "fdBalance", Money.format(u.fdBalance),
+                "availableCredit", Money.format(u.getAvailableCredit()), "dailySpent",
+                Money.format(u.getDailySpent(today)), "monthlySpent", Money.format(u.getMonthlySpent(today)));
+    }
+
+    private String history(User u) {
+        ArrayList<String> items = new ArrayList<>();
+        for (Transaction t : engine.history(u)) {
+            items.add(Json.object("type", t.type, "amount", Money.format(t.amount), "date", t.date,
+                    "description", t.description, "cardType", t.cardType));
+        }
+        return Json.object("ok", true, "transactions", Json.array(items));
+    }
+
+    private String statement(User u) {
+        ArrayList<String> months = new ArrayList<>();
+        for (MonthlyTotals.Month m : engine.statement(u, null, null)) {
+            ArrayList<String> totals = new ArrayList<>();
+            for (int e = 0; e < m.entries(); e++) {
+                totals.add(Json.object("type", m.type(e), "cardType", m.cardType(e), "count", m.count(e), "amount",
+                        Money.format(m.sum(e))));
+            }
+            months.add(Json.object("month", m.yearMonth().toString(), "count", m.count(), "totals",
+                    Json.array(totals)));
+        }
+        return Json.object("ok", true, "months", Json.array(months));
+    }
+
+    // Answers once the operation is durable, so a client never sees an acknowledgement that a
+    // crash could take back. The balances are only reported to the account holder (u not null).
+    private String result(User u, BankEngine.Result r) {
+        if (!r.ok)
+            throw new ApiError(422, r.message);
+        try {
+            r.durable.join();
+        } catch (CompletionException e) {
+            System.out.println("Error committing transaction: " + e.getCause().getMessage());
+            throw new ApiError(500, "Transaction could not be saved!");
+        }
+        if (u == null)
+            return Json.object("ok", true, "message", r.message);
+        return Json.object("ok", true, "message", r.message, "balance", Money.format(u.balance), "fdBalance",
+                Money.format(u.fdBalance));
+    }
+
+    private static BankEngine.CardPayment cardPayment(Map<String, String> body) {
+        BankEngine.CardPayment p = new BankEngine.CardPayment();
+        p.cardNumber = field(body, "cardNumber");
+        p.cvv = field(body, "cvv");
+        p.expiryDate = field(body, "expiryDate");
+        p.pin = field(body, "pin");
+        p.amount = amount(body);
+        return p;
+    }
+
+    private static long amount(Map<String, String> body) {
+        try {
+            return Money.parse(field(body, "amount"));
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new ApiError(400, "Invalid amount!");
+        }
+    }
+
+    private static String field(Map<String, String> body, String name) {
+        String value = body.get(name);
+        if (value == null)
+            throw new ApiError(400, "Missing field: " + name);
+        return value;
+    }
+
+    // ---------------------- HTTP ----------------------
+    private void route(String path, String method, boolean needsSession, Endpoint endpoint) {
+        server.createContext(path, exchange -> {
+            int status = 200;
+            String response;
+            AtomicInteger guessCount = null;
+            try {
+                if (!exchange.getRequestURI().getPath().equals(path))
+                    throw new ApiError(404, "Not found");
+                if (!exchange.getRequestMethod().equals(method))
+                    throw new ApiError(405, "Use " + method);
+                if (path.equals("/login")) {
+                    guessCount = guesses(exchange.getRemoteAddress().getAddress());
+                    if (guessCount.incrementAndGet() > guessesPerMinute)
+                        throw new ApiError(429, "Too many attempts, try again later!");
+                }
+                String token = bearerToken(exchange);
+                User u = null;
+                if (needsSession) {
+                    Session session = token != null ? sessions.get(token) : null;
+                    long now = System.nanoTime();
+                    if (session != null && session.expires - now <= 0) {
+                        sessions.remove(token);
+                        session = null;
+                    }
+                    if (session == null)
+                        throw new ApiError(401, "Please login first!");
+                    session.expires = now + sessionNanos;
+                    u = session.user;
+                }
+                Map<String, String> body;
+                try {
+                    body = Json.parseObject(readBody(exchange));
+                } catch (IllegalArgumentException e) {
+                    throw new ApiError(400, "Malformed JSON: " + e.getMessage());
+                }
+                response = endpoint.handle(u, body);
+                if (guessCount != null)
+                    guessCount.decrementAndGet();
+                if (path.equals("/logout"))
+                    sessions.remove(token);
+            } catch (ApiError e) {
+                status = e.status;
+                response = Json.object("ok", false, "message", e.getMessage());
+            } catch (RuntimeException e) {
+                System.out.println("Error handling " + path + ": " + e);
+                status = 500;
+                response = Json.object("ok", false, "message", "Internal error");
+            }
+
+            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+
+    // This minute's failed logins from client
+    private AtomicInteger guesses(InetAddress client) {
+        long minute = System.nanoTime() / 60_000_000_000L;
+        if (minute != guessMinute) {
+            synchronized (guesses) {
+                if (minute != guessMinute) {
+                    guesses.clear();
+                    guessMinute = minute;
+                }
+            }
+        }
+        return guesses.computeIfAbsent(client, k -> new AtomicInteger());
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer "))
+            return null;
+        return header.substring(7).trim();
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        File dir = new File(args.length > 1 ? args[1] : ".");
+
+        BankEngine engine = new BankEngine(dir);
+        engine.open();
+        BankServer server = new BankServer(engine, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            engine.close();
+        }));
+        server.start();
+        System.out.println("Bank server listening on port " + server.port() + " (data in "
+                + dir.getAbsoluteFile() + ")");
+    }
+}
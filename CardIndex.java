@@ -0,0 +1,184 @@
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Every issued card by number, for authorizing a payment from the card details alone. Numbers
+// are normalized once, when the card is added, to the long their digits spell, and kept in an
+// open-addressing table of primitive keys: a lookup is one hash and a short linear probe, with
+// no boxing, no string work and no scan over accounts.
+class CardIndex {
+    static final String DEBIT = "Debit";
+    static final String CREDIT = "Credit";
+
+    private static final long EMPTY = -1; // key() never returns a negative number for a valid card
+
+    static class Card {
+        final User owner;
+        final String type; // DEBIT or CREDIT
+
+        Card(User owner, String type) {
+            this.owner = owner;
+            this.type = type;
+        }
+    }
+
+    private long[] keys;
+    private Card[] cards;
+    private int size;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public CardIndex() {
+        allocate(1024);
+    }
+
+    // "1234 5678 9012 3456" -> 1234567890123456. Whitespace is skipped; anything else that is
+    // not a digit, or other than exactly 16 digits, gives -1. Every number is the same length,
+    // so leading zeros cannot make two of them one key.
+    static long key(String cardNumber) {
+        long key = 0;
+        int digits = 0;
+        for (int i = 0; i < cardNumber.length(); i++) {
+            char c = cardNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 16)
+                    return -1;
+                key = key * 10 + (c - '0');
+            } else if (!Character.isWhitespace(c)) {
+                return -1;
+            }
+        }
+        return digits == 16 ? key : -1;
+    }
+
+    // Adds both of u's cards. Returns false if either number is already taken or not a card
+    // number, in which case that card cannot be used for payments.
+    public boolean add(User u) {
+        lock.writeLock().lock();
+        try {
+            boolean debit = put(key(u.debitCardNumber), new Card(u, DEBIT));
+            boolean credit = put(key(u.creditCardNumber), new Card(u, CREDIT));
+            return debit && credit;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes u's cards, leaving alone any number that belongs to someone else
+    public void remove(User u) {
+        lock.writeLock().lock();
+        try {
+            delete(key(u.debitCardNumber), u);
+            delete(key(u.creditCardNumber), u);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Card get(String cardNumber) {
+        return get(key(cardNumber));
+    }
+
+    public Card get(long key) {
+        if (key < 0)
+            return null;
+        lock.readLock().lock();
+        try {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask);; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key)
+                    return cards[i];
+                if (k == EMPTY)
+                    return null;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            allocate(1024);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------------- TABLE ----------------------
+    private boolean put(long key, Card card) {
+        if (key < 0)
+            return false;
+        if ((size + 1) * 2 > keys.length)
+            resize(keys.length * 2);
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key)
+                return cards[i].owner == card.owner && cards[i].type.equals(card.type);
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        cards[i] = card;
+        size++;
+        return true;
+    }
+
+    private void delete(long key, User owner) {
+        if (key < 0)
+            return;
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY)
+                return;
+            i = (i + 1) & mask;
+        }
+        if (cards[i].owner != owner)
+            return;
+
+        // Shift later entries of the probe run back into the hole so lookups never stop early
+        int hole = i;
+        for (int j = (hole + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+            if (movable) {
+                keys[hole] = keys[j];
+                cards[hole] = cards[j];
+                hole = j;
+            }
+        }
+        keys[hole] = EMPTY;
+        cards[hole] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Card[] oldCards = cards;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY)
+                put(oldKeys[i], oldCards[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        java.util.Arrays.fill(keys, EMPTY);
+        cards = new Card[capacity];
+        size = 0;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
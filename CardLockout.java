@@ -0,0 +1,64 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+// Wrong card details per card. After -Dbank.card.maxFailures (default 3) payments in a row with
+// a wrong CVV, PIN or expiry date, a card is refused for -Dbank.card.lockMinutes (default 15)
+// without its details being checked, and then gets maxFailures more tries. Guessing one of the
+// 10,000 PINs of a card through the unauthenticated /card/authorize takes months that way
+// instead of minutes, and nobody can make the KDF behind each check run for a card at will.
+//
+// Every check counts as wrong from the moment it starts until it passes, so many guesses sent
+// at once cannot get past the count before their results are in.
+class CardLockout {
+    private final int maxFailures;
+    private final long lockNanos;
+    private final ConcurrentHashMap<Long, Failures> failures = new ConcurrentHashMap<>(); // by CardIndex.key()
+
+    private static class Failures {
+        int count;
+        long lockedUntil; // System.nanoTime(), once count reaches maxFailures
+    }
+
+    CardLockout(int maxFailures, long lockMinutes) {
+        this.maxFailures = maxFailures;
+        this.lockNanos = lockMinutes * 60_000_000_000L;
+    }
+
+    static CardLockout fromSystemProperties() {
+        return new CardLockout(Integer.getInteger("bank.card.maxFailures", 3),
+                Long.getLong("bank.card.lockMinutes", 15));
+    }
+
+    // Called before the card's details are checked. False if the card is locked, in which case
+    // they must not be.
+    public boolean attempt(String cardNumber) {
+        Failures f = failures.computeIfAbsent(CardIndex.key(cardNumber), k -> new Failures());
+        synchronized (f) {
+            long now = System.nanoTime();
+            if (f.count >= maxFailures) {
+                if (f.lockedUntil - now > 0)
+                    return false;
+                f.count = 0;
+            }
+            if (++f.count >= maxFailures)
+                f.lockedUntil = now + lockNanos;
+            return true;
+        }
+    }
+
+    // The details checked since attempt() were right. complete means all of them were given,
+    // which clears the card's failures; otherwise only this attempt stops counting.
+    public void passed(String cardNumber, boolean complete) {
+        long key = CardIndex.key(cardNumber);
+        if (complete) {
+            failures.remove(key);
+            return;
+        }
+        Failures f = failures.get(key);
+        if (f != null) {
+            synchronized (f) {
+                if (f.count > 0)
+                    f.count--;
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Passwords, PINs and CVVs as salted PBKDF2-HMAC-SHA256 hashes, kept in the same String fields
+// of User as before: "$pbkdf2-sha256$<iterations>$<salt>$<hash>", base64. The cost is in each
+// hash, so a new cost applies to new hashes while the old ones keep verifying (and are
+// redone at the new cost the next time a password is presented at login).
+//
+// Hashing is deliberately slow, so a correct guess is remembered for a short while: a card
+// payment checks the CVV and PIN again at every step and a client may log in repeatedly, and
+// only the first check pays for the KDF. The cache holds a keyed digest of the secret, never
+// the secret, and is keyed by the stored hash, so changing a credential drops its entries.
+// Wrong guesses are never cached and always cost the full KDF.
+//
+//   -Dbank.kdf.iterations=N     cost of new hashes (default 600000)
+//   -Dbank.kdf.cacheSeconds=N   how long a verified secret is remembered, 0 to never (default 300)
+//   -Dbank.kdf.cacheSize=N      remembered secrets at most (default 100000)
+//
+// Files written before credentials were hashed hold them in plaintext. Those still verify,
+// by a constant-time comparison, until hashed, which
+//
+//   java Credentials [data directory] [threads]
+//
+// does for every account at once (with the bank stopped, like StatementExporter).
+class Credentials {
+    private static final String PREFIX = "$pbkdf2-sha256$";
+    static final int ITERATIONS = Integer.getInteger("bank.kdf.iterations", 600000);
+    static volatile long cacheNanos = Long.getLong("bank.kdf.cacheSeconds", 300) * 1_000_000_000L;
+    private static final int CACHE_SIZE = Integer.getInteger("bank.kdf.cacheSize", 100000);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ConcurrentHashMap<String, Verified> VERIFIED = new ConcurrentHashMap<>();
+    private static final byte[] CACHE_KEY = new byte[32]; // for this process only
+    private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(CACHE_KEY, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    static {
+        RANDOM.nextBytes(CACHE_KEY);
+    }
+
+    // What an unknown username is checked against, so that it takes as long as a wrong password
+    private static class Unknown {
+        static final String HASH = hash(Long.toString(RANDOM.nextLong()));
+    }
+
+    private static class Verified {
+        final byte[] digest;
+        final long expires;
+
+        Verified(byte[] digest, long expires) {
+            this.digest = digest;
+            this.expires = expires;
+        }
+    }
+
+    public static String hash(String secret) {
+        return hash(secret, ITERATIONS);
+    }
+
+    public static String hash(String secret, int iterations) {
+        byte[] salt = new byte[16];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + b64.encodeToString(salt) + "$"
+                + b64.encodeToString(pbkdf2(secret, salt, iterations));
+    }
+
+    public static boolean isHashed(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    // True if stored should be hashed again once its secret is known: it is plaintext, or
+    // hashed at another cost
+    public static boolean needsRehash(String stored) {
+        if (!isHashed(stored))
+            return true;
+        int end = stored.indexOf('$', PREFIX.length());
+        return end < 0 || !stored.substring(PREFIX.length(), end).equals(Integer.toString(ITERATIONS));
+    }
+
+    // stored is null for an account that does not exist
+    public static boolean verify(String stored, String presented) {
+        if (presented == null)
+            return false;
+        if (stored == null) {
+            verify(Unknown.HASH, presented);
+            return false;
+        }
+        if (!isHashed(stored))
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+                    presented.getBytes(StandardCharsets.UTF_8));
+
+        byte[] digest = cacheNanos > 0 ? MACS.get().doFinal(presented.getBytes(StandardCharsets.UTF_8)) : null;
+        if (digest != null) {
+            Verified v = VERIFIED.get(stored);
+            if (v != null && v.expires - System.nanoTime() > 0 && MessageDigest.isEqual(v.digest, digest))
+                return true;
+        }
+
+        String[] parts = stored.split("\\$");
+        if (parts.length != 5)
+            return false;
+        byte[] expected;
+        byte[] actual;
+        try {
+            Base64.Decoder b64 = Base64.getDecoder();
+            expected = b64.decode(parts[4]);
+            actual = pbkdf2(presented, b64.decode(parts[3]), Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (!MessageDigest.isEqual(expected, actual))
+            return false;
+        if (digest != null)
+            remember(stored, digest);
+        return true;
+    }
+
+    static void clearCache() {
+        VERIFIED.clear();
+    }
+
+    // Expired entries go first; a cache still full of live ones starts over
+    private static void remember(String stored, byte[] digest) {
+        long now = System.nanoTime();
+        if (VERIFIED.size() >= CACHE_SIZE) {
+            VERIFIED.values().removeIf(v -> v.expires - now <= 0);
+            if (VERIFIED.size() >= CACHE_SIZE)
+                VERIFIED.clear();
+        }
+        VERIFIED.put(stored, new Verified(digest, now + cacheNanos));
+    }
+
+    private static byte[] pbkdf2(String secret, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(secret.toCharArray(), salt, iterations, 256);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    // False if any of u's credentials is still in plaintext
+    static boolean isProtected(User u) {
+        return isHashed(u.password) && (u.debitCVV == null || isHashed(u.debitCVV))
+                && (u.debitPIN == null || isHashed(u.debitPIN)) && (u.creditCVV == null || isHashed(u.creditCVV))
+                && (u.creditPIN == null || isHashed(u.creditPIN));
+    }
+
+    // Replaces plaintext credentials of an account nobody else can see yet
+    static void protect(User u) {
+        if (!isHashed(u.password))
+            u.password = hash(u.password);
+        if (u.debitCVV != null && !isHashed(u.debitCVV))
+            u.debitCVV = hash(u.debitCVV);
+        if (u.debitPIN != null && !isHashed(u.debitPIN))
+            u.debitPIN = hash(u.debitPIN);
+        if (u.creditCVV != null && !isHashed(u.creditCVV))
+            u.creditCVV = hash(u.creditCVV);
+        if (u.creditPIN != null && !isHashed(u.creditPIN))
+            u.creditPIN = hash(u.creditPIN);
+    }
+
+    public static void main(String[] args) {
+        File data = new File(args.length > 0 ? args[0] : ".");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        System.setProperty("bank.interest.checkMinutes", "0");
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        long start = System.nanoTime();
+        int hashed = engine.hashCredentials(threads);
+        System.out.printf("%d credentials hashed at %d iterations in %d ms%n", hashed, ITERATIONS,
+                (System.nanoTime() - start) / 1_000_000);
+        engine.close();
+    }
+}
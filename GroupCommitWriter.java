@@ -0,0 +1,140 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Persistence writer thread with group commit. Callers hand over a mutation and get a future
+// back immediately; the writer collects every mutation that arrives within the commit window,
+// writes them to the journal with one write and one fsync, and only then completes all their
+// futures. A completed future means the operation is on disk.
+//
+// A batch waiting out its window has nothing on disk yet, so a longer window only delays the
+// acknowledgements; it never widens what a crash can leave behind.
+//
+//   -Dbank.commit.windowMillis=N   how long to wait for more records after the first (default 2)
+//   -Dbank.commit.maxBatch=N       upper bound on records per fsync (default 1024)
+class GroupCommitWriter {
+    private static class Pending {
+        final long lsn;
+        final byte[][] records;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Pending(long lsn, int size) {
+            this.lsn = lsn;
+            this.records = new byte[size][];
+        }
+    }
+
+    private final Journal journal;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private Thread thread;
+    private volatile boolean running;
+
+    public GroupCommitWriter(Journal journal) {
+        this.journal = journal;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("bank.commit.windowMillis", 2));
+        this.maxBatch = Integer.getInteger("bank.commit.maxBatch", 1024);
+    }
+
+    // Queues the transaction for the journal, with the user's hot fields as they are now
+    public synchronized CompletableFuture<Long> submit(User u, Transaction t) {
+        long lsn = journal.nextLsn();
+        Pending p = new Pending(lsn, 1);
+        p.records[0] = Journal.format(lsn, u, t);
+        queue.add(p);
+        return p.done;
+    }
+
+    // Both sides of a transfer as a single journal record, so that replay sees both or neither
+    public synchronized CompletableFuture<Long> submitPair(User a, Transaction ta, User b, Transaction tb) {
+        long lsn = journal.nextLsn();
+        Pending p = new Pending(lsn, 1);
+        p.records[0] = Journal.format(lsn, a, ta, b, tb);
+        queue.add(p);
+        return p.done;
+    }
+
+    // One record per account, all in a single journal write and fsync and acknowledged by one
+    // future. The caller must keep the accounts from changing (AccountStore.exclusive()).
+    public synchronized CompletableFuture<Long> submitAll(List<User> users, List<Transaction> transactions) {
+        Pending p = new Pending(journal.getLastLsn() + users.size(), users.size());
+        for (int i = 0; i < users.size(); i++) {
+            p.records[i] = Journal.format(journal.nextLsn(), users.get(i), transactions.get(i));
+        }
+        queue.add(p);
+        return p.done;
+    }
+
+    public synchronized void start() {
+        running = true;
+        thread = new Thread(this::run, "bank-group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Commits everything queued so far and stops the writer thread. The thread is not
+    // interrupted: that would close the journal's channel in the middle of a force().
+    public void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    private void run() {
+        ArrayList<Pending> batch = new ArrayList<>();
+        ArrayList<byte[]> records = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                queue.drainTo(batch, maxBatch - batch.size());
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                commit(batch, records);
+            }
+        }
+    }
+
+    private void commit(ArrayList<Pending> batch, ArrayList<byte[]> records) {
+        BankEvents.Flush event = new BankEvents.Flush();
+        event.begin();
+        records.clear();
+        for (Pending p : batch) {
+            Collections.addAll(records, p.records);
+        }
+        try {
+            journal.write(records);
+            if (event.shouldCommit()) {
+                event.kind = "journal";
+                for (byte[] record : records) {
+                    event.bytes += record.length;
+                }
+                event.users = records.size();
+                event.commit();
+            }
+            for (Pending p : batch) {
+                p.done.complete(p.lsn);
+            }
+        } catch (Exception e) {
+            System.out.println("Error writing journal: " + e.getMessage());
+            for (Pending p : batch) {
+                p.done.completeExceptionally(e);
+            }
+        }
+        batch.clear();
+    }
+}
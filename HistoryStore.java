@@ -0,0 +1,428 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Transaction history kept out of the heap. Every transaction is appended to one shared file
+// as [length int][previous record of the same user long][transaction]; a user only carries
+// the offset of its newest record and a count, so per-user history is a backward chain.
+// Histories are read on first access and kept in an LRU cache of the most recently used
+// accounts, so resident memory follows active users rather than all transactions ever made.
+//
+// Appends are not fsync'd: the journal holds every transaction newer than the last snapshot,
+// and the snapshotter forces this file before writing a snapshot that points into it.
+//
+// Offsets are longs throughout and the file is read through maps of at most 1 GB (see
+// Segments), so it has no size limit of its own.
+//
+//   -Dbank.history.cacheUsers=N   histories kept in memory (default 1000)
+class HistoryStore {
+    private final File file;
+    private FileChannel channel;
+    private Segments segments;
+    private long size;
+    private final LinkedHashMap<String, TransactionLog> cache;
+
+    public HistoryStore(String fileName) {
+        this.file = new File(fileName);
+        int capacity = Integer.getInteger("bank.history.cacheUsers", 1000);
+        this.cache = new LinkedHashMap<String, TransactionLog>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, TransactionLog> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Opens the file and cuts it back to the length the last snapshot covers; anything after
+    // that is replayed from the journal.
+    public synchronized void open(long validLength) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        if (channel.size() > validLength) {
+            channel.truncate(validLength);
+        }
+        size = channel.size();
+        segments = null;
+        cache.clear();
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    // Moves a user's in-memory history (new account, or read from the text file)
+    // into the store and routes its future transactions here.
+    public synchronized void attach(User u) throws IOException {
+        if (u.historyStore == this)
+            return;
+        TransactionLog inline = u.transactionHistory;
+        u.transactionHistory = null;
+        u.historyStore = this;
+        if (inline != null) {
+            write(Collections.nCopies(inline.size(), u), inline, false);
+        }
+    }
+
+    public synchronized void append(User u, Transaction t) throws IOException {
+        appendAll(Collections.singletonList(u), Collections.singletonList(t));
+    }
+
+    // transactions.get(i) for users.get(i), all in one write
+    public synchronized void appendAll(List<User> users, List<Transaction> transactions) throws IOException {
+        write(users, transactions, true);
+    }
+
+    // counted: new transactions, added to the users' monthly totals; false when moving
+    // transactions the totals already hold
+    private void write(List<User> users, List<Transaction> transactions, boolean counted) throws IOException {
+        UserCodec.RecordWriter out = new UserCodec.RecordWriter(64 * users.size());
+        long[] previous = new long[users.size()];
+        for (int i = 0; i < previous.length; i++) {
+            User u = users.get(i);
+            int start = out.size();
+            previous[i] = u.historyHead;
+            out.putInt(0);
+            out.putLong(u.historyHead);
+            UserCodec.writeTransaction(out, transactions.get(i));
+            out.putInt(start, out.size() - start - 4);
+            u.historyHead = size + start; // a user can appear more than once
+        }
+
+        ByteBuffer src = ByteBuffer.wrap(out.toByteArray());
+        long pos = size;
+        try {
+            while (src.hasRemaining()) {
+                pos += channel.write(src, pos);
+            }
+        } catch (IOException e) {
+            for (int i = previous.length - 1; i >= 0; i--) {
+                users.get(i).historyHead = previous[i];
+            }
+            throw e;
+        }
+        size = pos;
+
+        for (int i = 0; i < previous.length; i++) {
+            User u = users.get(i);
+            u.historyCount++;
+            if (counted)
+                u.countTransaction(transactions.get(i));
+            TransactionLog cached = cache.get(u.username);
+            if (cached != null)
+                cached.add(transactions.get(i));
+        }
+    }
+
+    // Oldest first. The returned log is shared with the cache and must not be modified.
+    public synchronized TransactionLog history(User u) {
+        TransactionLog cached = cache.get(u.username);
+        if (cached != null)
+            return cached;
+
+        // Decoded oldest first straight into the columns, dates stay millis
+        TransactionLog history;
+        try {
+            Segments buf = map();
+            long[] offsets = new long[u.historyCount];
+            int n = 0;
+            for (long offset = u.historyHead; n < offsets.length && offset >= 0; offset = buf.previous(offset)) {
+                offsets[n++] = offset;
+            }
+            history = new TransactionLog(n);
+            for (int i = n - 1; i >= 0; i--) {
+                UserCodec.readTransaction(buf.transaction(offsets[i]), history);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error reading transaction history: " + e.getMessage());
+            return new TransactionLog();
+        }
+        cache.put(u.username, history);
+        return history;
+    }
+
+    // u's history as it is now, newest first, for reading a page at a time (see Cursor). The
+    // caller must hold u's lock so the head and count belong together.
+    public synchronized Cursor cursor(User u) {
+        TransactionLog cached = cache.get(u.username);
+        if (cached != null)
+            return new Cursor(this, cached);
+        return new Cursor(this, u.historyHead, u.historyCount);
+    }
+
+    // A fixed view of one history, newest first. Records are only ever appended and chains only
+    // point backwards, so later transactions on the account do not move what the cursor sees.
+    // Reading rows [from, from + n) follows the chain just that far, remembering each record's
+    // offset, and decodes only those n records: nothing is copied or sorted up front.
+    static class Cursor {
+        private final HistoryStore store;
+        private final Object lock; // held while reading: the store, or whoever appends to list
+        private final List<Transaction> list; // oldest first, when the history is already in memory
+        private final int count;
+        private long[] offsets; // offsets[i] is the record of the i-th newest transaction
+        private int known;
+
+        private Cursor(HistoryStore store, long head, int count) {
+            this.store = store;
+            this.lock = store;
+            this.list = null;
+            this.count = head >= 0 ? count : 0;
+            this.offsets = new long[Math.min(this.count, 1024)];
+            if (this.count > 0) {
+                offsets[0] = head;
+                known = 1;
+            }
+        }
+
+        // Over a cached history; appends to it do not disturb the first count entries
+        private Cursor(Object lock, List<Transaction> list) {
+            this.store = null;
+            this.lock = lock;
+            this.list = list;
+            this.count = list.size();
+        }
+
+        // Over a private copy of a history kept outside the store
+        static Cursor of(List<Transaction> list) {
+            return new Cursor(list, list);
+        }
+
+        public int size() {
+            return count;
+        }
+
+        // Up to n transactions starting at the from-th newest, newest first
+        public Transaction[] read(int from, int n) {
+            n = Math.max(0, Math.min(n, count - from));
+            Transaction[] rows = new Transaction[n];
+            synchronized (lock) {
+                if (list != null) {
+                    for (int i = 0; i < n; i++) {
+                        rows[i] = list.get(count - 1 - from - i);
+                    }
+                    return rows;
+                }
+                try {
+                    Segments buf = store.map();
+                    while (known < from + n) {
+                        if (known == offsets.length)
+                            offsets = Arrays.copyOf(offsets, Math.min(count, offsets.length * 2));
+                        long previous = buf.previous(offsets[known - 1]);
+                        if (previous < 0)
+                            return rows; // chain shorter than its count
+                        offsets[known++] = previous;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        rows[i] = UserCodec.readTransaction(buf.transaction(offsets[from + i]));
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    System.out.println("Error reading transaction history: " + e.getMessage());
+                }
+            }
+            return rows;
+        }
+    }
+
+    // u's history as it is now, for reading in date order without the store lock (see Scan).
+    // The caller must hold u's lock so the head and count belong together.
+    public synchronized Scan scan(User u) {
+        try {
+            return new Scan(map(), u.historyHead, u.historyCount);
+        } catch (IOException e) {
+            System.out.println("Error reading transaction history: " + e.getMessage());
+            return Scan.of(new TransactionLog());
+        }
+    }
+
+    // One history in the order it was recorded, which is date order, straight from the mapped
+    // file. Records are never changed once written, so a scan holds no lock and scans of
+    // different accounts can run side by side.
+    static class Scan {
+        private static final int STRIDE = 1024;
+
+        private final Segments buf;
+        private final long head;
+        private final int count;
+        private final TransactionLog list; // instead of buf, for a history kept outside the store
+
+        private Scan(Segments buf, long head, int count) {
+            this.buf = buf;
+            this.head = head;
+            this.count = count;
+            this.list = null;
+        }
+
+        private Scan(TransactionLog list) {
+            this.buf = null;
+            this.head = -1;
+            this.count = list.size();
+            this.list = list;
+        }
+
+        // Over a private copy of a history kept outside the store
+        static Scan of(TransactionLog list) {
+            return new Scan(list);
+        }
+
+        // Calls action for each transaction with fromMillis <= time < toMillis, oldest first,
+        // and returns how many there were. Transactions whose date is not a time are only
+        // included with no bounds at all (Long.MIN_VALUE, Long.MAX_VALUE).
+        //
+        // The walk back from the newest record reads nothing but record times: it skips what
+        // is newer than the range, notes every STRIDE-th record inside it and stops at the
+        // first one older. The stretches between notes are then decoded oldest first, so
+        // memory stays at a few thousand offsets however long the history or the range.
+        public int forEach(long fromMillis, long toMillis, Consumer<Transaction> action) {
+            boolean unbounded = fromMillis == Long.MIN_VALUE && toMillis == Long.MAX_VALUE;
+            if (list != null)
+                return forEachInList(fromMillis, toMillis, unbounded, action);
+
+            long[] marks = new long[16];
+            int marked = 0;
+            int inRange = 0;
+            long offset = head;
+            for (int seen = 0; seen < count && offset >= 0; seen++) {
+                long time = time(offset);
+                if (time != Long.MIN_VALUE) {
+                    if (time < fromMillis)
+                        break;
+                    if (time >= toMillis && inRange == 0) {
+                        offset = previous(offset);
+                        continue;
+                    }
+                }
+                if (inRange % STRIDE == 0) {
+                    if (marked == marks.length)
+                        marks = Arrays.copyOf(marks, marked * 2);
+                    marks[marked++] = offset;
+                }
+                inRange++;
+                offset = previous(offset);
+            }
+
+            int emitted = 0;
+            long[] stretch = new long[Math.min(STRIDE, inRange)];
+            for (int m = marked - 1; m >= 0; m--) {
+                int n = Math.min(STRIDE, inRange - m * STRIDE);
+                long at = marks[m];
+                for (int i = 0; i < n; i++) {
+                    stretch[i] = at;
+                    at = previous(at);
+                }
+                for (int i = n - 1; i >= 0; i--) {
+                    if (!unbounded && time(stretch[i]) == Long.MIN_VALUE)
+                        continue;
+                    action.accept(UserCodec.readTransaction(buf.transaction(stretch[i])));
+                    emitted++;
+                }
+            }
+            return emitted;
+        }
+
+        private int forEachInList(long fromMillis, long toMillis, boolean unbounded, Consumer<Transaction> action) {
+            int emitted = 0;
+            for (int i = 0; i < list.size(); i++) {
+                long time = list.time(i);
+                if (time == Long.MIN_VALUE ? unbounded : time >= fromMillis && time < toMillis) {
+                    action.accept(list.get(i));
+                    emitted++;
+                }
+            }
+            return emitted;
+        }
+
+        private long time(long offset) {
+            return UserCodec.transactionTime(buf.transaction(offset));
+        }
+
+        private long previous(long offset) {
+            return buf.previous(offset);
+        }
+    }
+
+    public synchronized void evict(String username) {
+        cache.remove(username);
+    }
+
+    public synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            segments = null;
+        }
+    }
+
+    private Segments map() throws IOException {
+        if (segments == null || segments.size < size) {
+            // Mapping past the end would grow the file, so only what has been written is mapped
+            segments = new Segments(channel, size, segments);
+        }
+        return segments;
+    }
+
+    // The first size bytes of the file as read-only maps of one 1 GB segment each, read at long
+    // offsets. Every map runs OVERLAP bytes into the next segment, so a record starting in a
+    // segment lies inside its map unless it is longer than that; such a record is read from the
+    // channel instead. Maps never change once made, so a Scan reads them without the store lock.
+    static class Segments {
+        private static final int SHIFT = 30;
+        private static final long MASK = (1L << SHIFT) - 1;
+        private static final int OVERLAP = 1 << 20;
+
+        private final FileChannel channel;
+        private final MappedByteBuffer[] maps;
+        final long size;
+
+        // Only the segments still growing are mapped again; full-length maps of older are kept
+        private Segments(FileChannel channel, long size, Segments older) throws IOException {
+            this.channel = channel;
+            this.size = size;
+            this.maps = new MappedByteBuffer[(int) ((size + MASK) >>> SHIFT)];
+            for (int i = 0; i < maps.length; i++) {
+                long start = (long) i << SHIFT;
+                long length = Math.min(size - start, MASK + 1 + OVERLAP);
+                if (older != null && i < older.maps.length && older.maps[i].capacity() == length)
+                    maps[i] = older.maps[i];
+                else
+                    maps[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+
+        // The record before the one at offset in the same chain, -1 at the oldest
+        long previous(long offset) {
+            return maps[(int) (offset >>> SHIFT)].getLong((int) (offset & MASK) + 4);
+        }
+
+        // The transaction of the record at offset, positioned at its first byte
+        ByteBuffer transaction(long offset) {
+            MappedByteBuffer map = maps[(int) (offset >>> SHIFT)];
+            int at = (int) (offset & MASK);
+            int length = map.getInt(at);
+            if (at + 4 + length <= map.capacity())
+                return map.duplicate().position(at + 12);
+
+            ByteBuffer record = ByteBuffer.allocate(length - 8);
+            try {
+                for (long pos = offset + 12; record.hasRemaining();) {
+                    int read = channel.read(record, pos);
+                    if (read < 0)
+                        throw new EOFException("history record at " + offset + " runs past the end");
+                    pos += read;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return record.flip();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.table.AbstractTableModel;
+
+// The transaction history dialog's rows, newest first, straight from a HistoryStore.Cursor.
+// Rows are fetched a page at a time as the table asks for them and only the last few pages
+// are kept, so opening the dialog costs the same for ten transactions or a million, and
+// amounts are only formatted for the rows on screen.
+class HistoryTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = { "Date & Time", "Type", "Amount (₹)", "Description", "Card Type" };
+    private static final int PAGE_SIZE = 256;
+    private static final int PAGES_KEPT = 8;
+
+    private final HistoryStore.Cursor cursor;
+    private final LinkedHashMap<Integer, Transaction[]> pages = new LinkedHashMap<Integer, Transaction[]>(16,
+            0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, Transaction[]> eldest) {
+            return size() > PAGES_KEPT;
+        }
+    };
+
+    public HistoryTableModel(HistoryStore.Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    public int getRowCount() {
+        return Math.max(cursor.size(), 1); // one row to say there is nothing yet
+    }
+
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    public Object getValueAt(int row, int column) {
+        if (cursor.size() == 0)
+            return column == 0 ? "No transactions yet" : "";
+        Transaction t = transaction(row);
+        if (t == null)
+            return "";
+        switch (column) {
+            case 0:
+                return t.date;
+            case 1:
+                return t.type;
+            case 2:
+                return Money.format(t.amount);
+            case 3:
+                return t.description;
+            default:
+                return t.cardType.isEmpty() ? "-" : t.cardType;
+        }
+    }
+
+    public Transaction transaction(int row) {
+        int page = row / PAGE_SIZE;
+        Transaction[] rows = pages.get(page);
+        if (rows == null) {
+            rows = cursor.read(page * PAGE_SIZE, PAGE_SIZE);
+            pages.put(page, rows);
+        }
+        int i = row % PAGE_SIZE;
+        return i < rows.length ? rows[i] : null;
+    }
+}
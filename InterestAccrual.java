@@ -0,0 +1,57 @@
+import java.time.LocalDate;
+
+// When and how much FD interest is credited. Interest accrues at an annual rate on the FD
+// balance, by the actual number of days in each period (so February earns less than March),
+// and is credited once per completed period. Each account remembers the day up to which it
+// has been credited, which makes a run for a period that was already credited a no-op.
+//
+//   -Dbank.interest.ratePercent=N      annual rate (default 5)
+//   -Dbank.interest.schedule=S         monthly (default) or daily
+//   -Dbank.interest.checkMinutes=N     how often the engine looks for a new period (default 60,
+//                                      0 = only when accrueInterest() is called)
+class InterestAccrual {
+    enum Schedule {
+        DAILY, MONTHLY
+    }
+
+    final Schedule schedule;
+    final int rateBasisPoints; // annual, 500 = 5%
+
+    InterestAccrual(Schedule schedule, int rateBasisPoints) {
+        this.schedule = schedule;
+        this.rateBasisPoints = rateBasisPoints;
+    }
+
+    static InterestAccrual fromSystemProperties() {
+        Schedule schedule = System.getProperty("bank.interest.schedule", "monthly").equalsIgnoreCase("daily")
+                ? Schedule.DAILY
+                : Schedule.MONTHLY;
+        return new InterestAccrual(schedule, Integer.getInteger("bank.interest.ratePercent", 5) * 100);
+    }
+
+    // Start of the period today falls in; everything before it is a completed period
+    LocalDate periodStart(LocalDate today) {
+        return schedule == Schedule.DAILY ? today : today.withDayOfMonth(1);
+    }
+
+    LocalDate previousPeriodStart(LocalDate periodStart) {
+        return schedule == Schedule.DAILY ? periodStart.minusDays(1) : periodStart.minusMonths(1);
+    }
+
+    // Interest on fdBalance for the days [fromDay, toDay) (epoch days), rounded half up to
+    // the paisa. Days are counted against the length of the year they fall in.
+    long interest(long fdBalance, long fromDay, long toDay) {
+        if (fdBalance <= 0 || toDay <= fromDay)
+            return 0;
+        long total = 0;
+        long day = fromDay;
+        while (day < toDay) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            long yearEnd = date.withDayOfYear(date.lengthOfYear()).toEpochDay() + 1;
+            long days = Math.min(toDay, yearEnd) - day;
+            total += Money.scale(fdBalance, (long) rateBasisPoints * days, 10000L * date.lengthOfYear());
+            day += days;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead journal. Every balance mutation appends one line holding the
+// transaction it produced and the account's hot fields after it, so a deposit costs one short
+// fsync'd append instead of a rewrite of the whole users file. A transfer is one line
+// carrying both accounts, so a torn append loses both sides or neither.
+//
+// Line format: lsn,username,balance,fdBalance,creditUsed,dailySpent,monthlySpent,spentDay,
+//              interestAccruedTo,transaction[,username,...,transaction],crc
+class Journal {
+    private static final int ENTRY_FIELDS = 9;
+    private final File file;
+    private FileOutputStream out;
+    private long lastLsn;
+    private long size; // bytes in the journal file
+    private int records; // records in the journal file
+
+    public Journal(String fileName) {
+        this.file = new File(fileName);
+    }
+
+    public synchronized long getLastLsn() {
+        return lastLsn;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int records() {
+        return records;
+    }
+
+    // Reserves the next sequence number. Records must reach write() in sequence order.
+    public synchronized long nextLsn() {
+        return ++lastLsn;
+    }
+
+    public static byte[] format(long lsn, User u, Transaction t) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(lsn);
+        appendEntry(sb, u, t);
+        return finish(sb);
+    }
+
+    // One record for both sides of a transfer, under one lsn and one checksum
+    public static byte[] format(long lsn, User a, Transaction ta, User b, Transaction tb) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(lsn);
+        appendEntry(sb, a, ta);
+        appendEntry(sb, b, tb);
+        return finish(sb);
+    }
+
+    private static void appendEntry(StringBuilder sb, User u, Transaction t) {
+        sb.append(",").append(u.username).append(",");
+        sb.append(u.balance).append(",").append(u.fdBalance).append(",").append(u.creditUsed).append(",");
+        sb.append(u.dailySpent).append(",").append(u.monthlySpent).append(",");
+        sb.append(u.spentDay).append(",").append(u.interestAccruedTo).append(",");
+        sb.append(t.toString().replace(",", ";;"));
+    }
+
+    private static byte[] finish(StringBuilder sb) {
+        String crc = checksum(sb);
+        sb.append(",").append(crc).append("\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Writes a batch of formatted records with a single write and a single fsync
+    public synchronized void write(List<byte[]> batch) throws IOException {
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        int length = 0;
+        for (byte[] record : batch) {
+            length += record.length;
+        }
+        byte[] bytes = new byte[length];
+        int pos = 0;
+        for (byte[] record : batch) {
+            System.arraycopy(record, 0, bytes, pos, record.length);
+            pos += record.length;
+        }
+
+        out.write(bytes);
+        out.getChannel().force(false);
+        size += length;
+        records += batch.size();
+    }
+
+    public synchronized long append(User u, Transaction t) throws IOException {
+        long lsn = nextLsn();
+        write(Collections.singletonList(format(lsn, u, t)));
+        return lsn;
+    }
+
+    // Applies every record newer than snapshotLsn to the loaded users. Stops at the first
+    // torn or corrupt record, which can only be the tail of an interrupted append.
+    // The torn tail is cut off so that new appends do not land behind it.
+    public synchronized void replay(Map<String, User> users, long snapshotLsn) {
+        lastLsn = snapshotLsn;
+        size = 0;
+        records = 0;
+        if (!file.exists())
+            return;
+
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    size += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    continue;
+                }
+                int crcAt = line.lastIndexOf(',');
+                if (crcAt < 0 || !line.substring(crcAt + 1).equals(checksum(line.substring(0, crcAt)))) {
+                    System.out.println("Warning: Ignoring torn journal record: " + line);
+                    break;
+                }
+                size += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                records++;
+                String[] parts = line.substring(0, crcAt).split(",");
+                long lsn = Long.parseLong(parts[0]);
+                if (lsn <= snapshotLsn)
+                    continue;
+
+                if (parts.length < 1 + ENTRY_FIELDS || (parts.length - 1) % ENTRY_FIELDS != 0)
+                    throw new IOException("journal record " + lsn + " has " + parts.length + " fields");
+                for (int at = 1; at < parts.length; at += ENTRY_FIELDS) {
+                    applyEntry(users, parts, at);
+                }
+                lastLsn = lsn;
+            }
+        } catch (Exception e) {
+            System.out.println("Error replaying journal: " + e.getMessage());
+        }
+
+        if (file.length() > size) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(size);
+            } catch (IOException e) {
+                System.out.println("Error truncating journal: " + e.getMessage());
+            }
+        }
+    }
+
+    // Called once a snapshot covering every record before byte offset keepFrom is safely on
+    // disk. Only the records appended after the snapshot was captured are kept; they are
+    // copied into a fresh file which then replaces the journal.
+    public synchronized void compact(long keepFrom) throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        int kept = 0;
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            if (size > keepFrom) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    byte[] tail = new byte[(int) (size - keepFrom)];
+                    raf.seek(keepFrom);
+                    raf.readFully(tail);
+                    fos.write(tail);
+                    for (byte b : tail) {
+                        if (b == '\n')
+                            kept++;
+                    }
+                }
+            }
+            fos.getChannel().force(false);
+        }
+        java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+
+        size = Math.max(0, size - keepFrom);
+        records = kept;
+    }
+
+    // username, seven hot fields and the transaction, starting at parts[at]
+    private static void applyEntry(Map<String, User> users, String[] parts, int at) {
+        User u = users.get(parts[at]);
+        if (u == null)
+            return;
+        u.balance = Long.parseLong(parts[at + 1]);
+        u.fdBalance = Long.parseLong(parts[at + 2]);
+        u.creditUsed = Long.parseLong(parts[at + 3]);
+        u.dailySpent = Long.parseLong(parts[at + 4]);
+        u.monthlySpent = Long.parseLong(parts[at + 5]);
+        u.spentDay = Long.parseLong(parts[at + 6]);
+        u.interestAccruedTo = Long.parseLong(parts[at + 7]);
+        Transaction tx = Transaction.fromString(parts[at + 8].replace(";;", ","));
+        if (tx != null)
+            u.addTransaction(tx);
+    }
+
+    private static String checksum(CharSequence record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.toString().getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.*;
+
+// Just enough JSON for the server protocol: requests are flat objects of strings, numbers and
+// booleans, responses are built with object() and array().
+class Json {
+    // Marks text that is already JSON (a nested object or array) when passed to object()
+    static class Raw {
+        final String json;
+
+        Raw(String json) {
+            this.json = json;
+        }
+    }
+
+    // {"k1": v1, "k2": v2, ...}. Strings are quoted, numbers, booleans and Raw go in as they are.
+    static String object(Object... keysAndValues) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (i > 0)
+                sb.append(',');
+            quote(sb, (String) keysAndValues[i]);
+            sb.append(':');
+            Object v = keysAndValues[i + 1];
+            if (v == null) {
+                sb.append("null");
+            } else if (v instanceof Number || v instanceof Boolean) {
+                sb.append(v);
+            } else if (v instanceof Raw) {
+                sb.append(((Raw) v).json);
+            } else {
+                quote(sb, v.toString());
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    static Raw array(List<String> elements) {
+        return new Raw("[" + String.join(",", elements) + "]");
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        quote(sb, s);
+        return sb.toString();
+    }
+
+    private static void quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    // Parses a flat object into key -> value text (strings unescaped, numbers and literals as
+    // written). Nested objects and arrays are rejected.
+    static Map<String, String> parseObject(String json) {
+        Parser p = new Parser(json);
+        LinkedHashMap<String, String> fields = new LinkedHashMap<>();
+        p.skipSpace();
+        if (p.atEnd())
+            return fields; // an empty body is an empty object
+        p.expect('{');
+        p.skipSpace();
+        if (!p.consume('}')) {
+            do {
+                p.skipSpace();
+                String key = p.string();
+                p.skipSpace();
+                p.expect(':');
+                p.skipSpace();
+                fields.put(key, p.value());
+                p.skipSpace();
+            } while (p.consume(','));
+            p.expect('}');
+        }
+        p.skipSpace();
+        if (!p.atEnd())
+            throw new IllegalArgumentException("Trailing characters after JSON object");
+        return fields;
+    }
+
+    private static class Parser {
+        private final String s;
+        private int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        boolean atEnd() {
+            return pos >= s.length();
+        }
+
+        void skipSpace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+                pos++;
+        }
+
+        boolean consume(char c) {
+            if (pos < s.length() && s.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c))
+                throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+        }
+
+        String value() {
+            if (pos < s.length() && s.charAt(pos) == '"')
+                return string();
+            int start = pos;
+            while (pos < s.length() && ",}] \t\r\n".indexOf(s.charAt(pos)) < 0) {
+                if (s.charAt(pos) == '{' || s.charAt(pos) == '[')
+                    throw new IllegalArgumentException("Nested values are not supported");
+                pos++;
+            }
+            if (start == pos)
+                throw new IllegalArgumentException("Missing value at " + pos);
+            String literal = s.substring(start, pos);
+            return literal.equals("null") ? null : literal;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (atEnd())
+                    throw new IllegalArgumentException("Unterminated string");
+                char c = s.charAt(pos++);
+                if (c == '"')
+                    return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (atEnd())
+                    throw new IllegalArgumentException("Unterminated string");
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u':
+                        if (pos + 4 > s.length())
+                            throw new IllegalArgumentException("Bad escape");
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(e);
+                }
+            }
+        }
+    }
+}
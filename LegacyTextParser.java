@@ -0,0 +1,288 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Parallel reader for the legacy bank_users.txt layouts. The file is mapped, cut into
+// line-aligned chunks and every chunk is tokenized on a fork-join pool by scanning bytes for
+// separators, instead of String.split() per line and per transaction. Chunks are merged into
+// the users map in file order, so later lines still win over earlier ones.
+//
+// Layouts (same as loadUsers() always accepted):
+//   4 fields     username,password,balance,fdBalance
+//   20 fields    + debit card, limits, credit card (PINs default to 1234)
+//   22+ fields   + debitPIN,creditPIN[,txCount,tx...]
+// and the one User.toString() writes, which every bank_users.txt the app saved is in;
+// field 8 is the debit PIN instead of tapToPay:
+//   23+ fields   ...,debitCardType,debitPIN,tapToPay,...,creditExpiryDate,creditPIN,
+//                creditLimit,...,cibilScore,txCount[,tx...]
+// Amounts are rupees, either "1234.50" or the double text older versions wrote ("1.0E7").
+//
+// A line in none of these layouts fails the whole parse, rather than loading a bank with
+// those accounts missing that the next snapshot would then make permanent.
+class LegacyTextParser {
+    private static final int TARGET_CHUNK_BYTES = 16 * 1024 * 1024;
+
+    private static class Chunk {
+        final ArrayList<User> users = new ArrayList<>();
+        int rejected;
+    }
+
+    // Field bounds of the last tokenize() call
+    private static class Fields {
+        int[] starts = new int[64];
+        int[] ends = new int[64];
+        int count;
+    }
+
+    private final Charset charset = Charset.defaultCharset();
+    private final Fields line = new Fields();
+    private final Fields tx = new Fields();
+    private byte[] bytes;
+
+    static void parse(File file, Map<String, User> users, int threads, LoadPhases phases) throws Exception {
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large for the text loader, convert it with UserCodec");
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            int chunkCount = (int) Math.max(threads * 4L, size / TARGET_CHUNK_BYTES + 1);
+            ArrayList<int[]> bounds = new ArrayList<>();
+            int from = 0;
+            for (int k = 1; k <= chunkCount && from < size; k++) {
+                int to = k == chunkCount ? (int) size : (int) (size * k / chunkCount);
+                while (to < size && buf.get(to - 1) != '\n') {
+                    to++;
+                }
+                if (to > from) {
+                    bounds.add(new int[] { from, to });
+                    from = to;
+                }
+            }
+            if (phases != null)
+                phases.mark("split");
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ArrayList<Chunk> chunks = new ArrayList<>();
+            try {
+                ArrayList<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+                for (int[] b : bounds) {
+                    tasks.add(pool.submit(() -> new LegacyTextParser().parseChunk(buf, b[0], b[1])));
+                }
+                for (ForkJoinTask<Chunk> task : tasks) {
+                    chunks.add(task.get());
+                }
+            } finally {
+                pool.shutdown();
+            }
+            if (phases != null)
+                phases.mark("parse");
+
+            int rejected = 0;
+            for (Chunk c : chunks) {
+                rejected += c.rejected;
+            }
+            if (rejected > 0)
+                throw new IOException(rejected + " lines of " + file + " have an unexpected format, nothing loaded");
+
+            for (Chunk c : chunks) {
+                for (User u : c.users) {
+                    users.put(u.username, u);
+                }
+            }
+            if (phases != null)
+                phases.mark("merge");
+        }
+    }
+
+    private Chunk parseChunk(ByteBuffer buf, int from, int to) {
+        bytes = new byte[to - from];
+        buf.duplicate().position(from).get(bytes);
+
+        Chunk chunk = new Chunk();
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int end = lineEnd > lineStart && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            try {
+                parseLine(lineStart, end, chunk);
+            } catch (RuntimeException e) {
+                System.out.println("Warning: Line with unexpected format: " + str(lineStart, end));
+                chunk.rejected++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    private void parseLine(int from, int to, Chunk chunk) {
+        if (isBlank(from, to))
+            return; // Skip empty lines
+
+        tokenize(from, to, (byte) ',', line);
+        int n = line.count;
+        if (n == 4) {
+            // Old format - create user with default card details
+            chunk.users.add(new User(str(0), str(1), paise(2), paise(3)));
+        } else if (n >= 20 && isBoolean(8)) {
+            // 20 fields have no PINs yet, 22+ carry them and the transaction history
+            TransactionLog transactions = new TransactionLog();
+            chunk.users.add(new User(
+                    str(0), str(1),
+                    paise(2), paise(3),
+                    str(4), str(5), str(6), str(7),
+                    n > 20 ? str(20) : "1234", // debitPIN
+                    bool(8),
+                    paise(9), paise(10),
+                    paise(11), paise(12),
+                    str(13), str(14), str(15),
+                    n > 21 ? str(21) : "1234", // creditPIN
+                    paise(16), paise(17),
+                    (int) parseLong(line.starts[18], line.ends[18]),
+                    (int) parseLong(line.starts[19], line.ends[19]),
+                    transactions));
+            if (n > 22)
+                readTransactions(22, transactions);
+        } else if (n >= 23) {
+            // PINs inline, as User.toString() wrote them
+            TransactionLog transactions = new TransactionLog();
+            chunk.users.add(new User(
+                    str(0), str(1),
+                    paise(2), paise(3),
+                    str(4), str(5), str(6), str(7),
+                    str(8), // debitPIN
+                    bool(9),
+                    paise(10), paise(11),
+                    paise(12), paise(13),
+                    str(14), str(15), str(16),
+                    str(17), // creditPIN
+                    paise(18), paise(19),
+                    (int) parseLong(line.starts[20], line.ends[20]),
+                    (int) parseLong(line.starts[21], line.ends[21]),
+                    transactions));
+            readTransactions(22, transactions);
+        } else {
+            throw new IllegalArgumentException(n + " fields");
+        }
+    }
+
+    // The transaction count in field countAt and that many transactions after it
+    private void readTransactions(int countAt, TransactionLog transactions) {
+        int n = line.count;
+        int txCount = (int) parseLong(line.starts[countAt], line.ends[countAt]);
+        for (int i = 0; i < txCount && (countAt + 1 + i) < n; i++) {
+            Transaction t = parseTransaction(line.starts[countAt + 1 + i], line.ends[countAt + 1 + i]);
+            if (t != null)
+                transactions.add(t);
+        }
+    }
+
+    // Same rules as Transaction.fromString() on the ";;"-escaped field
+    private Transaction parseTransaction(int from, int to) {
+        tokenize(from, to, (byte) '|', tx);
+        if (tx.count < 4)
+            return null;
+        return new Transaction(unescape(0), parsePaise(tx.starts[1], tx.ends[1]), unescape(2), unescape(3),
+                tx.count > 4 ? unescape(4) : "");
+    }
+
+    // Splits [from, to) on sep, dropping trailing empty fields like String.split()
+    private void tokenize(int from, int to, byte sep, Fields f) {
+        int n = 0;
+        int fieldStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || bytes[i] == sep) {
+                if (n == f.starts.length) {
+                    f.starts = Arrays.copyOf(f.starts, n * 2);
+                    f.ends = Arrays.copyOf(f.ends, n * 2);
+                }
+                f.starts[n] = fieldStart;
+                f.ends[n] = i;
+                n++;
+                fieldStart = i + 1;
+            }
+        }
+        while (n > 0 && f.starts[n - 1] == f.ends[n - 1]) {
+            n--;
+        }
+        f.count = n;
+    }
+
+    private String str(int field) {
+        return str(line.starts[field], line.ends[field]);
+    }
+
+    private String str(int from, int to) {
+        return new String(bytes, from, to - from, charset);
+    }
+
+    private String unescape(int field) {
+        String s = str(tx.starts[field], tx.ends[field]);
+        return s.indexOf(';') >= 0 ? s.replace(";;", ",") : s;
+    }
+
+    private long paise(int field) {
+        return parsePaise(line.starts[field], line.ends[field]);
+    }
+
+    private boolean bool(int field) {
+        return str(field).equalsIgnoreCase("true");
+    }
+
+    private boolean isBoolean(int field) {
+        return bool(field) || str(field).equalsIgnoreCase("false");
+    }
+
+    // Plain decimals with at most two places are converted exactly; anything else (exponents,
+    // the long fractions of old double arithmetic) goes through Money.parseLenient().
+    private long parsePaise(int from, int to) {
+        int i = from;
+        boolean negative = i < to && bytes[i] == '-';
+        if (negative)
+            i++;
+        long paise = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                paise = paise * 10 + (b - '0');
+                digits++;
+                if (fraction >= 0)
+                    fraction++;
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                return Money.parseLenient(str(from, to));
+            }
+        }
+        if (digits == 0 || digits > 16 || fraction > 2)
+            return Money.parseLenient(str(from, to));
+        for (int d = Math.max(fraction, 0); d < 2; d++) {
+            paise *= 10;
+        }
+        return negative ? -paise : paise;
+    }
+
+    private long parseLong(int from, int to) {
+        while (from < to && bytes[from] == ' ')
+            from++;
+        while (to > from && bytes[to - 1] == ' ')
+            to--;
+        return Long.parseLong(str(from, to));
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] != ' ' && bytes[i] != '\t')
+                return false;
+        }
+        return true;
+    }
+}
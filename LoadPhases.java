@@ -0,0 +1,33 @@
+// Wall-clock time of each startup phase, e.g. "index 12 ms, parse 480 ms, merge 95 ms", also
+// recorded as a BankEvents.LoadPhase per phase
+class LoadPhases {
+    private final long start = System.nanoTime();
+    private long last = start;
+    private final StringBuilder report = new StringBuilder();
+    private BankEvents.LoadPhase event = begin();
+
+    public void mark(String phase) {
+        event.phase = phase;
+        event.commit();
+        event = begin();
+        long now = System.nanoTime();
+        if (report.length() > 0)
+            report.append(", ");
+        report.append(phase).append(" ").append((now - last) / 1000000).append(" ms");
+        last = now;
+    }
+
+    public long totalMillis() {
+        return (last - start) / 1000000;
+    }
+
+    public String toString() {
+        return report.toString();
+    }
+
+    private static BankEvents.LoadPhase begin() {
+        BankEvents.LoadPhase e = new BankEvents.LoadPhase();
+        e.begin();
+        return e;
+    }
+}
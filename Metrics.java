@@ -0,0 +1,255 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// How long the engine's operations take and why they are refused. Recording is a few atomic
+// adds into arrays sized up front, so it allocates nothing and costs far less than the
+// operations themselves. Two ways to read the numbers, both off unless asked for:
+//
+//   -Dbank.metrics.dumpSeconds=N  a text summary on standard output every N seconds
+//   -Dbank.metrics.port=P         Prometheus text format at http://127.0.0.1:P/metrics; only
+//                                 the loopback interface is bound, scrape it from the same host
+class Metrics {
+    static final int LOGIN = 0, LOAD = 1, SAVE = 2, CARD_PAYMENT = 3;
+    static final String[] OPERATIONS = { "login", "load", "save", "card_payment" };
+
+    // Why an operation was refused, found from the start of the message the engine gives
+    static final String[] REASONS = { "invalid_credentials", "incomplete_details", "card_not_found",
+            "invalid_cvv", "invalid_expiry", "invalid_pin", "invalid_amount", "daily_limit_exceeded",
+            "monthly_limit_exceeded", "credit_limit_exceeded", "insufficient_balance", "card_blocked", "error",
+            "other" };
+    private static final String[] MESSAGES = { "Invalid username or password", "Incomplete card details",
+            "Card number not found", "Invalid CVV", "Invalid Expiry Date", "Invalid PIN", "Invalid amount",
+            "Daily spending limit exceeded", "Monthly spending limit exceeded", "Credit limit exceeded",
+            "Insufficient balance", "Card blocked", "Error" };
+    static final int ERROR = 12;
+
+    private final Histogram[] latencies = new Histogram[OPERATIONS.length];
+    private final AtomicLongArray failures = new AtomicLongArray(OPERATIONS.length * REASONS.length);
+    private ScheduledExecutorService dumper;
+    private HttpServer server;
+
+    Metrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+    }
+
+    // operation took from startNanos (System.nanoTime()) until now; failure is the message it
+    // was refused with, or null
+    public void record(int operation, long startNanos, String failure) {
+        latencies[operation].record(System.nanoTime() - startNanos);
+        if (failure != null)
+            refused(operation, failure);
+    }
+
+    // A refusal with no time to go with it
+    public void refused(int operation, String failure) {
+        failures.incrementAndGet(operation * REASONS.length + reason(failure));
+    }
+
+    public Histogram latency(int operation) {
+        return latencies[operation];
+    }
+
+    public long failures(int operation, int reason) {
+        return failures.get(operation * REASONS.length + reason);
+    }
+
+    static int reason(String message) {
+        for (int i = 0; i < MESSAGES.length; i++) {
+            if (message.startsWith(MESSAGES[i]))
+                return i;
+        }
+        return REASONS.length - 1;
+    }
+
+    // ---------------------- REPORTING ----------------------
+    // Starts whatever the bank.metrics.* properties ask for
+    public void start() {
+        long seconds = Long.getLong("bank.metrics.dumpSeconds", 0);
+        if (seconds > 0) {
+            dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "bank-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            dumper.scheduleAtFixedRate(() -> System.out.print(text()), seconds, seconds, TimeUnit.SECONDS);
+        }
+        int port = Integer.getInteger("bank.metrics.port", 0);
+        if (port > 0) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16);
+                server.createContext("/metrics", exchange -> {
+                    byte[] bytes = prometheus().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(bytes);
+                    }
+                });
+                server.start();
+            } catch (IOException e) {
+                System.out.println("Error starting metrics endpoint: " + e.getMessage());
+            }
+        }
+    }
+
+    public void stop() {
+        if (dumper != null)
+            dumper.shutdownNow();
+        if (server != null)
+            server.stop(0);
+        dumper = null;
+        server = null;
+    }
+
+    // One line per operation that has happened, times in microseconds
+    public String text() {
+        StringBuilder sb = new StringBuilder();
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            Histogram h = latencies[op].copy();
+            if (h.count() == 0)
+                continue;
+            sb.append(String.format("metrics %s: %,d ops, p50 %,d us, p90 %,d us, p99 %,d us, p99.9 %,d us, max %,d us",
+                    OPERATIONS[op], h.count(), h.percentile(50) / 1000, h.percentile(90) / 1000,
+                    h.percentile(99) / 1000, h.percentile(99.9) / 1000, h.max() / 1000));
+            for (int r = 0; r < REASONS.length; r++) {
+                long n = failures(op, r);
+                if (n > 0)
+                    sb.append(", ").append(REASONS[r]).append(' ').append(n);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP bank_operation_seconds Time taken by bank operations\n");
+        sb.append("# TYPE bank_operation_seconds summary\n");
+        double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            Histogram h = latencies[op].copy();
+            String label = "operation=\"" + OPERATIONS[op] + "\"";
+            for (double q : quantiles) {
+                sb.append("bank_operation_seconds{").append(label).append(",quantile=\"").append(q).append("\"} ")
+                        .append(seconds(h.percentile(q * 100))).append('\n');
+            }
+            sb.append("bank_operation_seconds_sum{").append(label).append("} ").append(seconds(h.sum())).append('\n');
+            sb.append("bank_operation_seconds_count{").append(label).append("} ").append(h.count()).append('\n');
+        }
+        sb.append("# HELP bank_operation_seconds_max Longest time taken by a bank operation\n");
+        sb.append("# TYPE bank_operation_seconds_max gauge\n");
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            sb.append("bank_operation_seconds_max{operation=\"").append(OPERATIONS[op]).append("\"} ")
+                    .append(seconds(latencies[op].max())).append('\n');
+        }
+        sb.append("# HELP bank_operation_failures_total Bank operations refused or failed, by reason\n");
+        sb.append("# TYPE bank_operation_failures_total counter\n");
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            for (int r = 0; r < REASONS.length; r++) {
+                long n = failures(op, r);
+                if (n > 0)
+                    sb.append("bank_operation_failures_total{operation=\"").append(OPERATIONS[op])
+                            .append("\",reason=\"").append(REASONS[r]).append("\"} ").append(n).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    // ---------------------- HISTOGRAM ----------------------
+    // Nanosecond latencies in log-linear buckets, the way HdrHistogram lays them out: exact
+    // below 64, then 32 buckets for every power of two, so a percentile is within about 3% of
+    // the true value whatever the scale. 1,888 buckets cover every positive long.
+    static class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int HALF = 1 << SUB_BITS;
+        private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0)
+                nanos = 0;
+            counts.incrementAndGet(index(nanos));
+            sum.addAndGet(nanos);
+            long m = max.get();
+            while (nanos > m && !max.compareAndSet(m, nanos)) {
+                m = max.get();
+            }
+        }
+
+        public long count() {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                n += counts.get(i);
+            }
+            return n;
+        }
+
+        public long sum() {
+            return sum.get();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        // The value p percent of recordings are at or below, to bucket precision; 0 when empty
+        public long percentile(double p) {
+            long n = count();
+            if (n == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank)
+                    return Math.min(highest(i), max.get());
+            }
+            return max.get();
+        }
+
+        // A still copy, so a report adds up while recording goes on
+        Histogram copy() {
+            Histogram h = new Histogram();
+            for (int i = 0; i < BUCKETS; i++) {
+                h.counts.set(i, counts.get(i));
+            }
+            h.sum.set(sum.get());
+            h.max.set(max.get());
+            return h;
+        }
+
+        static int index(long v) {
+            if (v < 2 * HALF)
+                return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return (shift << SUB_BITS) + (int) (v >>> shift);
+        }
+
+        // Largest value that lands in bucket i
+        static long highest(int i) {
+            if (i < 2 * HALF)
+                return i;
+            int shift = (i >>> SUB_BITS) - 1;
+            long lowest = (long) (i - (shift << SUB_BITS)) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+// Amounts are held as a long count of paise (1/100 rupee) everywhere: balances, limits,
+// spending counters and transactions. Additions and limit checks are exact integer
+// arithmetic, and rupee strings only appear at the edges (input, display, text files).
+class Money {
+    static final long PAISE_PER_RUPEE = 100;
+
+    static long ofRupees(long rupees) {
+        return Math.multiplyExact(rupees, PAISE_PER_RUPEE);
+    }
+
+    // Parses what a user types: "250", "250.5" or "250.50". More than two decimal places is
+    // rejected rather than rounded, so nobody is charged an amount they did not enter.
+    static long parse(String s) {
+        s = s.trim();
+        int i = 0;
+        boolean negative = s.startsWith("-");
+        if (negative || s.startsWith("+"))
+            i++;
+        long paise = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (decimals == 2)
+                    throw new NumberFormatException("More than two decimal places: " + s);
+                paise = Math.addExact(Math.multiplyExact(paise, 10), c - '0');
+                digits++;
+                if (decimals >= 0)
+                    decimals++;
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                throw new NumberFormatException("Not an amount: " + s);
+            }
+        }
+        if (digits == 0)
+            throw new NumberFormatException("Not an amount: " + s);
+        for (int d = Math.max(decimals, 0); d < 2; d++) {
+            paise = Math.multiplyExact(paise, 10);
+        }
+        return negative ? -paise : paise;
+    }
+
+    // Also accepts the double-valued text written before amounts were paise ("1.0E7",
+    // "99.99000000000001"), rounded to the nearest paisa
+    static long parseLenient(String s) {
+        try {
+            return parse(s);
+        } catch (NumberFormatException | ArithmeticException e) {
+            return fromDouble(Double.parseDouble(s));
+        }
+    }
+
+    static long fromDouble(double rupees) {
+        return Math.round(rupees * PAISE_PER_RUPEE);
+    }
+
+    // rate percent of amount, rounded half up to the paisa
+    static long percentOf(long paise, int rate) {
+        return Math.floorDiv(Math.multiplyExact(paise, rate) + 50, 100);
+    }
+
+    // paise * numerator / denominator (both positive), rounded half up to the paisa
+    static long scale(long paise, long numerator, long denominator) {
+        try {
+            return Math.floorDiv(Math.addExact(Math.multiplyExact(paise, numerator), denominator / 2), denominator);
+        } catch (ArithmeticException e) {
+            return java.math.BigInteger.valueOf(paise).multiply(java.math.BigInteger.valueOf(numerator))
+                    .add(java.math.BigInteger.valueOf(denominator / 2))
+                    .divide(java.math.BigInteger.valueOf(denominator)).longValueExact();
+        }
+    }
+
+    // "1234.50", the form parse() reads back
+    static String format(long paise) {
+        StringBuilder sb = new StringBuilder(24);
+        if (paise < 0)
+            sb.append('-');
+        long abs = Math.abs(paise);
+        long fraction = abs % PAISE_PER_RUPEE;
+        sb.append(abs / PAISE_PER_RUPEE).append('.');
+        if (fraction < 10)
+            sb.append('0');
+        return sb.append(fraction).toString();
+    }
+}
@@ -0,0 +1,220 @@
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// One account's running totals per calendar month: for each transaction type and card type,
+// how many transactions and how much money. They are bumped as each transaction is recorded
+// and stored with the account, so a statement over any range of months takes one step per
+// month rather than a pass over the history. Transactions whose date is not a valid time
+// (only possible in very old files) are not in any month.
+//
+// Guarded like the rest of the account: callers hold its lock.
+class MonthlyTotals {
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // One calendar month of one account
+    static class Month {
+        final int key; // year * 12 + month - 1
+        private int[] kinds = new int[4]; // TYPES code of the type << 8 | code of the card type
+        private int[] counts = new int[4];
+        private long[] sums = new long[4];
+        private int size;
+
+        Month(int key) {
+            this.key = key;
+        }
+
+        public YearMonth yearMonth() {
+            return YearMonth.of(key / 12, key % 12 + 1);
+        }
+
+        // Distinct (type, card type) pairs this month, for the accessors below
+        public int entries() {
+            return size;
+        }
+
+        public String type(int entry) {
+            return TransactionLog.TYPES.get(kinds[entry] >>> 8);
+        }
+
+        public String cardType(int entry) {
+            return TransactionLog.TYPES.get(kinds[entry] & 0xFF);
+        }
+
+        public int count(int entry) {
+            return counts[entry];
+        }
+
+        public long sum(int entry) {
+            return sums[entry];
+        }
+
+        public int count() {
+            int total = 0;
+            for (int i = 0; i < size; i++) {
+                total += counts[i];
+            }
+            return total;
+        }
+
+        // Paise moved by transactions of this type, any card type
+        public long sum(String type) {
+            int code = TransactionLog.TYPES.id(type);
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] >>> 8 == code)
+                    total += sums[i];
+            }
+            return total;
+        }
+
+        public long sum(String type, String cardType) {
+            int i = indexOf(TransactionLog.TYPES.id(type) << 8 | TransactionLog.TYPES.id(cardType));
+            return i >= 0 ? sums[i] : 0;
+        }
+
+        void add(int kind, int count, long amount) {
+            int i = indexOf(kind);
+            if (i < 0) {
+                if (size == kinds.length) {
+                    kinds = Arrays.copyOf(kinds, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                    sums = Arrays.copyOf(sums, size * 2);
+                }
+                i = size++;
+                kinds[i] = kind;
+            }
+            counts[i] += count;
+            sums[i] += amount;
+        }
+
+        Month copy() {
+            Month m = new Month(key);
+            m.kinds = Arrays.copyOf(kinds, Math.max(size, 1));
+            m.counts = Arrays.copyOf(counts, Math.max(size, 1));
+            m.sums = Arrays.copyOf(sums, Math.max(size, 1));
+            m.size = size;
+            return m;
+        }
+
+        private int indexOf(int kind) {
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] == kind)
+                    return i;
+            }
+            return -1;
+        }
+    }
+
+    private Month[] months = new Month[0]; // oldest first
+    private int size;
+
+    // Built from a whole history, for accounts stored before totals were kept
+    static MonthlyTotals of(TransactionLog history) {
+        MonthlyTotals totals = new MonthlyTotals();
+        for (int i = 0; i < history.size(); i++) {
+            long millis = history.time(i);
+            if (millis != Long.MIN_VALUE)
+                totals.add(monthOf(millis), history.type(i), history.cardType(i), 1, history.amount(i));
+        }
+        return totals;
+    }
+
+    public void add(Transaction t) {
+        int month = monthOf(t.date);
+        if (month >= 0)
+            add(month, t.type, t.cardType, 1, t.amount);
+    }
+
+    void add(int month, String type, String cardType, int count, long amount) {
+        int kind = TransactionLog.TYPES.id(type) << 8 | TransactionLog.TYPES.id(cardType);
+        monthFor(month).add(kind, count, amount);
+    }
+
+    // Copies of the months from..to inclusive that had transactions, oldest first; a null
+    // bound is open
+    public ArrayList<Month> between(YearMonth from, YearMonth to) {
+        int lo = from != null ? search(key(from)) : 0;
+        if (lo < 0)
+            lo = -lo - 1;
+        int last = to != null ? key(to) : Integer.MAX_VALUE;
+        ArrayList<Month> result = new ArrayList<>();
+        for (int i = lo; i < size && months[i].key <= last; i++) {
+            result.add(months[i].copy());
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    Month month(int i) {
+        return months[i];
+    }
+
+    static int key(YearMonth month) {
+        return month.getYear() * 12 + month.getMonthValue() - 1;
+    }
+
+    static int monthOf(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZONE);
+        return t.getYear() * 12 + t.getMonthValue() - 1;
+    }
+
+    // "dd/MM/yyyy HH:mm:ss", read by position like UserCodec does; -1 if it is not a date
+    static int monthOf(String date) {
+        if (date == null || date.length() < 10)
+            return -1;
+        int month = 0;
+        int year = 0;
+        for (int i = 3; i < 10; i++) {
+            if (i == 5)
+                continue;
+            char c = date.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            if (i < 5) {
+                month = month * 10 + (c - '0');
+            } else {
+                year = year * 10 + (c - '0');
+            }
+        }
+        return month >= 1 && month <= 12 ? year * 12 + month - 1 : -1;
+    }
+
+    // Transactions almost always land in the newest month, so that is checked first
+    private Month monthFor(int key) {
+        if (size > 0 && months[size - 1].key == key)
+            return months[size - 1];
+        int i = search(key);
+        if (i >= 0)
+            return months[i];
+        i = -i - 1;
+        if (size == months.length)
+            months = Arrays.copyOf(months, Math.max(size * 2, 4));
+        System.arraycopy(months, i, months, i + 1, size - i);
+        months[i] = new Month(key);
+        size++;
+        return months[i];
+    }
+
+    private int search(int key) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (months[mid].key < key) {
+                lo = mid + 1;
+            } else if (months[mid].key > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Writes point-in-time images of the users map and compacts the journal behind them.
+// A background check fires a snapshot as soon as the journal passes any limit of the
+// policy, so startup only ever replays a bounded journal tail.
+class Snapshotter {
+    static class Policy {
+        final int maxRecords;
+        final long maxBytes;
+        final long maxSeconds;
+
+        Policy(int maxRecords, long maxBytes, long maxSeconds) {
+            this.maxRecords = maxRecords;
+            this.maxBytes = maxBytes;
+            this.maxSeconds = maxSeconds;
+        }
+
+        // -Dbank.snapshot.records=N -Dbank.snapshot.mb=N -Dbank.snapshot.seconds=N
+        static Policy fromSystemProperties() {
+            return new Policy(Integer.getInteger("bank.snapshot.records", 10000),
+                    Long.getLong("bank.snapshot.mb", 8) * 1024 * 1024,
+                    Long.getLong("bank.snapshot.seconds", 300));
+        }
+    }
+
+    // Consistent image of the users map together with the journal and history positions it covers
+    static class Image {
+        final long lsn;
+        final long journalOffset;
+        final long historyLength;
+        final ArrayList<byte[]> records;
+
+        Image(long lsn, long journalOffset, long historyLength, ArrayList<byte[]> records) {
+            this.lsn = lsn;
+            this.journalOffset = journalOffset;
+            this.historyLength = historyLength;
+            this.records = records;
+        }
+    }
+
+    private final File file;
+    private final File legacyFile;
+    private final Journal journal;
+    private final HistoryStore history;
+    private final AccountStore accounts;
+    private final Policy policy;
+    private ScheduledExecutorService scheduler;
+    private long lastSnapshotTime = System.currentTimeMillis();
+
+    // Snapshots are written in the binary format to fileName; legacyFileName is the old text
+    // file, read only until the first binary snapshot exists.
+    public Snapshotter(String fileName, String legacyFileName, Journal journal, HistoryStore history,
+            AccountStore accounts, Policy policy) {
+        this.file = new File(fileName);
+        this.legacyFile = new File(legacyFileName);
+        this.journal = journal;
+        this.history = history;
+        this.accounts = accounts;
+        this.policy = policy;
+    }
+
+    public boolean exists() {
+        return file.exists() || legacyFile.exists();
+    }
+
+    // Loads the last snapshot, hands every account's history to the history store and replays
+    // the journal tail on top of it.
+    // Snapshot parsing uses -Dbank.load.threads (default: all cores); the time spent in each
+    // phase is printed once loading is done.
+    public void load() {
+        Map<String, User> users = accounts.map();
+        LoadPhases phases = new LoadPhases();
+        int threads = Integer.getInteger("bank.load.threads", Runtime.getRuntime().availableProcessors());
+        long snapshotLsn = 0;
+        long historyLength = 0;
+        if (file.exists()) {
+            try {
+                UserCodec.Header header = UserCodec.readSnapshot(file, users, threads, phases);
+                snapshotLsn = header.lsn;
+                historyLength = header.historyLength;
+            } catch (Exception e) {
+                System.out.println("Error loading users: " + e.getMessage());
+                e.printStackTrace();
+            }
+        } else if (legacyFile.exists()) {
+            readLegacySnapshot(legacyFile, users, threads, phases);
+        }
+        try {
+            // Accounts read from the text file carry their history inline; it is moved into the store here
+            history.open(historyLength);
+            for (User u : users.values()) {
+                history.attach(u);
+            }
+        } catch (IOException e) {
+            System.out.println("Error opening transaction history: " + e.getMessage());
+        }
+        phases.mark("history");
+        journal.replay(users, snapshotLsn);
+        phases.mark("journal");
+        System.out.println("Loaded " + users.size() + " users in " + phases.totalMillis() + " ms (" + phases + ")");
+    }
+
+    // Encodes every account while updates are held back, so the image matches the journal
+    // position exactly
+    public Image capture() {
+        return accounts.exclusive(() -> {
+            ArrayList<byte[]> records = new ArrayList<>(accounts.size());
+            for (User u : accounts.values()) {
+                records.add(UserCodec.encode(u));
+            }
+            return new Image(journal.getLastLsn(), journal.size(), history.size(), records);
+        });
+    }
+
+    public synchronized void write(Image image) throws IOException {
+        BankEvents.Flush event = new BankEvents.Flush();
+        event.begin();
+        // The snapshot points into the history file, which must reach the disk first
+        history.force();
+        File tmp = new File(file.getPath() + ".tmp");
+        UserCodec.writeSnapshot(tmp, image.lsn, image.historyLength, image.records);
+        java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+
+        journal.compact(image.journalOffset);
+        lastSnapshotTime = System.currentTimeMillis();
+        if (event.shouldCommit()) {
+            event.kind = "snapshot";
+            event.bytes = file.length();
+            event.users = image.records.size();
+            event.commit();
+        }
+    }
+
+    // Checks the policy once a second and captures and writes on the snapshotter's own thread
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bank-snapshotter");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (isDue()) {
+                    write(capture());
+                }
+            } catch (Exception e) {
+                System.out.println("Error writing snapshot: " + e.getMessage());
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private boolean isDue() {
+        int records = journal.records();
+        if (records == 0)
+            return false;
+        return records >= policy.maxRecords || journal.size() >= policy.maxBytes
+                || System.currentTimeMillis() - lastSnapshotTime >= policy.maxSeconds * 1000;
+    }
+
+    // Reads a bank_users.txt in any of the layouts the text loader accepted into users
+    static void readLegacySnapshot(File file, Map<String, User> users) {
+        readLegacySnapshot(file, users, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    // A text file that does not load completely stops the bank from starting: it would save
+    // its first snapshot without the accounts that failed, and the text file is never read
+    // again once a snapshot exists
+    static void readLegacySnapshot(File file, Map<String, User> users, int threads, LoadPhases phases) {
+        try {
+            LegacyTextParser.parse(file, users, threads, phases);
+        } catch (Exception e) {
+            System.out.println("Error loading users: " + e.getMessage());
+            throw new IllegalStateException("Could not convert " + file + ", fix or move it away and restart", e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Account statements as CSV text for any date range. Rows are written as the history is
+// read (see HistoryStore.Scan), so memory does not grow with the history, and a range near
+// the end of a long history never touches the older part of it.
+//
+//   java StatementExporter [data directory] [output directory] [from yyyy-MM-dd] [to yyyy-MM-dd] [threads]
+//
+// writes statement_<username>.csv for every account, several accounts at a time, for the
+// given days or else the last complete month. It opens the data directory like the GUI does,
+// so run it while the bank is stopped or on a copy.
+class StatementExporter {
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final BankEngine engine;
+
+    public StatementExporter(BankEngine engine) {
+        this.engine = engine;
+    }
+
+    // u's transactions dated from..to (inclusive, null for no bound) to out, oldest first
+    public int export(User u, LocalDate from, LocalDate to, Writer out) throws IOException {
+        return write(u.username, engine.historyScan(u), from, to, out);
+    }
+
+    // Month-end run: a statement file per account in dir, threads accounts at a time.
+    // Returns how many were written.
+    public int exportAll(File dir, LocalDate from, LocalDate to, int threads) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+        ArrayList<User> users = new ArrayList<>(engine.users());
+        AtomicInteger written = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> users.parallelStream().forEach(u -> {
+                File file = new File(dir, "statement_" + u.username.replaceAll("[^A-Za-z0-9._-]", "_") + ".csv");
+                try (Writer out = new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+                    export(u, from, to, out);
+                    written.incrementAndGet();
+                } catch (IOException e) {
+                    System.out.println("Error exporting statement for " + u.username + ": " + e.getMessage());
+                }
+            })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Statement run failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        return written.get();
+    }
+
+    // Returns the number of transactions written
+    static int write(String username, HistoryStore.Scan scan, LocalDate from, LocalDate to, Writer out)
+            throws IOException {
+        out.write("Bank Of Modi statement for " + csv(username) + "," + (from != null ? from : "start") + ","
+                + (to != null ? to : "today") + "\n");
+        out.write("Date & Time,Type,Amount (₹),Description,Card Type\n");
+        StringBuilder row = new StringBuilder(128);
+        int rows;
+        try {
+            rows = scan.forEach(from != null ? millis(from) : Long.MIN_VALUE,
+                    to != null ? millis(to.plusDays(1)) : Long.MAX_VALUE, t -> {
+                        row.setLength(0);
+                        row.append(t.date).append(',').append(csv(t.type)).append(',').append(Money.format(t.amount))
+                                .append(',').append(csv(t.description)).append(',').append(csv(t.cardType))
+                                .append('\n');
+                        try {
+                            out.append(row);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.write(rows + " transactions\n");
+        return rows;
+    }
+
+    private static long millis(LocalDate day) {
+        return day.atStartOfDay(ZONE).toInstant().toEpochMilli();
+    }
+
+    private static String csv(String s) {
+        if (s == null)
+            return "";
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+            return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    public static void main(String[] args) throws IOException {
+        File data = new File(args.length > 0 ? args[0] : ".");
+        File out = new File(args.length > 1 ? args[1] : "statements");
+        LocalDate lastMonth = LocalDate.now().withDayOfMonth(1).minusMonths(1);
+        LocalDate from = args.length > 2 ? LocalDate.parse(args[2]) : lastMonth;
+        LocalDate to = args.length > 3 ? LocalDate.parse(args[3]) : lastMonth.plusMonths(1).minusDays(1);
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        System.setProperty("bank.interest.checkMinutes", "0");
+        BankEngine engine = new BankEngine(data);
+        engine.open();
+        long start = System.nanoTime();
+        int written = new StatementExporter(engine).exportAll(out, from, to, threads);
+        System.out.printf("%d statements for %s to %s written to %s in %d ms%n", written, from, to,
+                out.getAbsoluteFile(), (System.nanoTime() - start) / 1_000_000);
+        engine.close();
+    }
+}
@@ -0,0 +1,37 @@
+class Transaction {
+    String type; // "Deposit", "Withdraw", "FD_Transfer", "FD_Withdraw", "Card_Payment"
+    long amount; // paise
+    String date;
+    String description;
+    String cardType; // "Debit" or "Credit" for card payments
+
+    public Transaction(String type, long amount, String description, String cardType) {
+        this.type = type;
+        this.amount = amount;
+        this.description = description;
+        this.cardType = cardType;
+        this.date = UserCodec.fromEpochMillis(System.currentTimeMillis());
+    }
+
+    // Constructor for loading from file (keeps the recorded date)
+    public Transaction(String type, long amount, String date, String description, String cardType) {
+        this.type = type;
+        this.amount = amount;
+        this.date = date;
+        this.description = description;
+        this.cardType = cardType;
+    }
+
+    public String toString() {
+        return type + "|" + Money.format(amount) + "|" + date + "|" + description + "|" + cardType;
+    }
+
+    public static Transaction fromString(String str) {
+        String[] parts = str.split("\\|");
+        if (parts.length >= 4) {
+            return new Transaction(parts[0], Money.parseLenient(parts[1]), parts[2],
+                    parts.length > 3 ? parts[3] : "", parts.length > 4 ? parts[4] : "");
+        }
+        return null;
+    }
+}
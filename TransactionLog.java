@@ -0,0 +1,199 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+// One account's transactions held as columns of primitives instead of Transaction objects:
+// the time in epoch millis, the amount in paise, one-byte type and card type codes, and the
+// description as an id into a dictionary shared by all accounts. That is 22 bytes a
+// transaction, where a Transaction with its own date string and description costs a couple
+// of hundred, and a pass over amounts or times reads one array front to back.
+//
+// The dictionary never forgets a description, so it takes the first
+// -Dbank.history.descriptions (default 100000) distinct ones; after that, a description it
+// does not know (a transfer note, a new merchant) is kept by the log that holds it, like a
+// date that is not a valid time.
+//
+// Columns start small and double up to CHUNK entries, then grow a chunk at a time, so a long
+// history is never copied as it grows. As a List, get() builds a Transaction on the fly and
+// add() takes one apart. Not thread safe; callers hold the account or history store lock.
+class TransactionLog extends AbstractList<Transaction> implements RandomAccess {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MASK = CHUNK - 1;
+
+    // Transaction and card types share one code space, which a byte covers many times over
+    static final Dictionary TYPES = new Dictionary(256);
+    // Descriptions repeat heavily ("Cash Deposit", "Transfer to john", one per interest period)
+    static final Dictionary DESCRIPTIONS = new Dictionary(Integer.getInteger("bank.history.descriptions", 100000) + 1);
+
+    private long[][] times = new long[0][];
+    private long[][] amounts = new long[0][];
+    private byte[][] types = new byte[0][];
+    private byte[][] cardTypes = new byte[0][];
+    private int[][] descriptions = new int[0][];
+    private HashMap<Integer, String> textDates; // dates that are not a valid time, by index
+    private HashMap<Integer, String> ownDescriptions; // descriptions left out of DESCRIPTIONS, by index
+    private int size;
+    private final int firstChunk;
+
+    public TransactionLog() {
+        this(8);
+    }
+
+    // expected: the number of transactions about to be added
+    public TransactionLog(int expected) {
+        this.firstChunk = Math.max(1, Math.min(expected, CHUNK));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Transaction get(int i) {
+        checkIndex(i);
+        return new Transaction(type(i), amount(i), date(i), description(i), cardType(i));
+    }
+
+    public boolean add(Transaction t) {
+        add(t.type, t.amount, UserCodec.toEpochMillis(t.date), t.date, t.description, t.cardType);
+        return true;
+    }
+
+    // millis is Long.MIN_VALUE when the date is not a time, in which case date is kept as is
+    public void add(String type, long amount, long millis, String date, String description, String cardType) {
+        int chunk = size >>> CHUNK_BITS;
+        int at = size & MASK;
+        if (chunk == times.length) {
+            int length = chunk == 0 ? firstChunk : CHUNK;
+            times = Arrays.copyOf(times, chunk + 1);
+            amounts = Arrays.copyOf(amounts, chunk + 1);
+            types = Arrays.copyOf(types, chunk + 1);
+            cardTypes = Arrays.copyOf(cardTypes, chunk + 1);
+            descriptions = Arrays.copyOf(descriptions, chunk + 1);
+            times[chunk] = new long[length];
+            amounts[chunk] = new long[length];
+            types[chunk] = new byte[length];
+            cardTypes[chunk] = new byte[length];
+            descriptions[chunk] = new int[length];
+        } else if (at == times[chunk].length) {
+            // Only the first chunk starts short of CHUNK
+            int length = Math.min(at * 2, CHUNK);
+            times[chunk] = Arrays.copyOf(times[chunk], length);
+            amounts[chunk] = Arrays.copyOf(amounts[chunk], length);
+            types[chunk] = Arrays.copyOf(types[chunk], length);
+            cardTypes[chunk] = Arrays.copyOf(cardTypes[chunk], length);
+            descriptions[chunk] = Arrays.copyOf(descriptions[chunk], length);
+        }
+
+        times[chunk][at] = millis;
+        amounts[chunk][at] = amount;
+        types[chunk][at] = (byte) TYPES.id(type);
+        cardTypes[chunk][at] = (byte) TYPES.id(cardType);
+        int descriptionId = DESCRIPTIONS.tryId(description);
+        descriptions[chunk][at] = descriptionId;
+        if (descriptionId < 0) {
+            if (ownDescriptions == null)
+                ownDescriptions = new HashMap<>();
+            ownDescriptions.put(size, description);
+        }
+        if (millis == Long.MIN_VALUE) {
+            if (textDates == null)
+                textDates = new HashMap<>();
+            textDates.put(size, date);
+        }
+        size++;
+    }
+
+    public void clear() {
+        times = new long[0][];
+        amounts = new long[0][];
+        types = new byte[0][];
+        cardTypes = new byte[0][];
+        descriptions = new int[0][];
+        textDates = null;
+        ownDescriptions = null;
+        size = 0;
+    }
+
+    // ---------------------- COLUMNS ----------------------
+    // Epoch millis, or Long.MIN_VALUE if the recorded date is not a valid time
+    public long time(int i) {
+        return times[i >>> CHUNK_BITS][i & MASK];
+    }
+
+    public long amount(int i) {
+        return amounts[i >>> CHUNK_BITS][i & MASK];
+    }
+
+    public String type(int i) {
+        return TYPES.get(types[i >>> CHUNK_BITS][i & MASK] & 0xFF);
+    }
+
+    public String cardType(int i) {
+        return TYPES.get(cardTypes[i >>> CHUNK_BITS][i & MASK] & 0xFF);
+    }
+
+    public String description(int i) {
+        int id = descriptions[i >>> CHUNK_BITS][i & MASK];
+        return id >= 0 ? DESCRIPTIONS.get(id) : ownDescriptions.get(i);
+    }
+
+    public String date(int i) {
+        long millis = time(i);
+        return millis != Long.MIN_VALUE ? UserCodec.fromEpochMillis(millis) : textDates.get(i);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+    }
+
+    // Strings to small ids for the life of the process; id 0 is null. Lookups of known strings
+    // take no lock, and an id handed out is never reused.
+    static class Dictionary {
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private final int limit;
+        private volatile String[] strings = new String[64];
+        private int size = 1;
+
+        Dictionary(int limit) {
+            this.limit = limit;
+        }
+
+        int id(String s) {
+            int id = tryId(s);
+            if (id < 0)
+                throw new IllegalStateException("More than " + (limit - 1) + " distinct values: " + s);
+            return id;
+        }
+
+        // -1 if s is new and the dictionary is full
+        int tryId(String s) {
+            if (s == null)
+                return 0;
+            Integer id = ids.get(s);
+            return id != null ? id : add(s);
+        }
+
+        String get(int id) {
+            return strings[id];
+        }
+
+        private synchronized int add(String s) {
+            Integer id = ids.get(s);
+            if (id != null)
+                return id;
+            if (size == limit)
+                return -1;
+            String[] a = strings;
+            if (size == a.length)
+                a = Arrays.copyOf(a, size * 2);
+            a[size] = s;
+            strings = a; // the volatile write publishes the new entry to get()
+            ids.put(s, size);
+            return size++;
+        }
+    }
+}
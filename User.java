@@ -0,0 +1,235 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// All amounts are in paise, see Money
+class User {
+    String username;
+    String password;
+    long balance;
+    long fdBalance;
+
+    // Debit Card Details
+    String debitCardNumber;
+    String debitCVV;
+    String debitExpiryDate;
+    String debitCardType; // Visa, Master, RuPay
+    String debitPIN; // 4-digit PIN
+    boolean tapToPayEnabled;
+    long monthlySpendingLimit;
+    long dailySpendingLimit;
+    long monthlySpent;
+    long dailySpent;
+
+    // Credit Card Details
+    String creditCardNumber;
+    String creditCVV;
+    String creditExpiryDate;
+    String creditPIN; // 4-digit PIN
+    long creditLimit;
+    long creditUsed;
+    int pendingEMIs;
+    int cibilScore;
+
+    // Transaction History (kept in memory only until the account is attached to a HistoryStore)
+    TransactionLog transactionHistory;
+    HistoryStore historyStore;
+
+    final ReentrantLock lock = new ReentrantLock(); // held by AccountStore.update()
+    long historyHead = -1; // offset of the newest record in the history store
+    int historyCount;
+    long interestAccruedTo; // epoch day FD interest has been credited up to, 0 = never
+    long spentDay; // epoch day of the last debit card spend, 0 = unknown
+    MonthlyTotals monthlyTotals = new MonthlyTotals(); // the history summed per month, see BankEngine.statement()
+
+    public User(String username, String password, long balance, long fdBalance) {
+        this.username = username;
+        this.password = password;
+        this.balance = balance;
+        this.fdBalance = fdBalance;
+
+        // Initialize debit card with default values
+        this.debitCardNumber = generateCardNumber();
+        this.debitCVV = generateCVV();
+        this.debitExpiryDate = generateExpiryDate();
+        this.debitCardType = generateCardType();
+        this.debitPIN = generatePIN();
+        this.tapToPayEnabled = true;
+        this.monthlySpendingLimit = Money.ofRupees(100000);
+        this.dailySpendingLimit = Money.ofRupees(50000);
+        this.monthlySpent = 0;
+        this.dailySpent = 0;
+
+        // Initialize credit card with default values
+        this.creditCardNumber = generateCardNumber();
+        this.creditCVV = generateCVV();
+        this.creditExpiryDate = generateExpiryDate();
+        this.creditPIN = generatePIN();
+        this.creditLimit = Money.ofRupees(50000);
+        this.creditUsed = 0;
+        this.pendingEMIs = 0;
+        this.cibilScore = 750;
+
+        // Initialize transaction history
+        this.transactionHistory = new TransactionLog();
+    }
+
+    // Constructor for loading from file
+    public User(String username, String password, long balance, long fdBalance,
+            String debitCardNumber, String debitCVV, String debitExpiryDate, String debitCardType,
+            String debitPIN, boolean tapToPayEnabled, long monthlySpendingLimit, long dailySpendingLimit,
+            long monthlySpent, long dailySpent,
+            String creditCardNumber, String creditCVV, String creditExpiryDate, String creditPIN,
+            long creditLimit, long creditUsed, int pendingEMIs, int cibilScore,
+            TransactionLog transactionHistory) {
+        this.username = username;
+        this.password = password;
+        this.balance = balance;
+        this.fdBalance = fdBalance;
+        this.debitCardNumber = debitCardNumber;
+        this.debitCVV = debitCVV;
+        this.debitExpiryDate = debitExpiryDate;
+        this.debitCardType = debitCardType;
+        this.debitPIN = debitPIN;
+        this.tapToPayEnabled = tapToPayEnabled;
+        this.monthlySpendingLimit = monthlySpendingLimit;
+        this.dailySpendingLimit = dailySpendingLimit;
+        this.monthlySpent = monthlySpent;
+        this.dailySpent = dailySpent;
+        this.creditCardNumber = creditCardNumber;
+        this.creditCVV = creditCVV;
+        this.creditExpiryDate = creditExpiryDate;
+        this.creditPIN = creditPIN;
+        this.creditLimit = creditLimit;
+        this.creditUsed = creditUsed;
+        this.pendingEMIs = pendingEMIs;
+        this.cibilScore = cibilScore;
+        this.transactionHistory = transactionHistory != null ? transactionHistory : new TransactionLog();
+        this.monthlyTotals = MonthlyTotals.of(this.transactionHistory); // a snapshot replaces it with its own
+    }
+
+    private String generateCardNumber() {
+        Random rand = new Random();
+        StringBuilder card = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            if (i > 0 && i % 4 == 0) {
+                card.append(" ");
+            }
+            card.append(rand.nextInt(10));
+        }
+        return card.toString();
+    }
+
+    private String generateCVV() {
+        Random rand = new Random();
+        return String.format("%03d", rand.nextInt(1000));
+    }
+
+    private String generateExpiryDate() {
+        Random rand = new Random();
+        int month = rand.nextInt(12) + 1;
+        int year = 2025 + rand.nextInt(5);
+        return String.format("%02d/%d", month, year);
+    }
+
+    private String generateCardType() {
+        String[] types = { "Visa", "Master", "RuPay" };
+        Random rand = new Random();
+        return types[rand.nextInt(types.length)];
+    }
+
+    private String generatePIN() {
+        Random rand = new Random();
+        return String.format("%04d", rand.nextInt(10000));
+    }
+
+    public void addTransaction(Transaction transaction) {
+        if (historyStore != null) {
+            try {
+                historyStore.append(this, transaction);
+            } catch (IOException e) {
+                System.out.println("Error writing transaction history: " + e.getMessage());
+            }
+            return;
+        }
+        if (transactionHistory == null) {
+            transactionHistory = new TransactionLog();
+        }
+        transactionHistory.add(transaction);
+        countTransaction(transaction);
+    }
+
+    void countTransaction(Transaction transaction) {
+        if (monthlyTotals != null)
+            monthlyTotals.add(transaction);
+    }
+
+    // Loaded from the history store on first use
+    public TransactionLog getTransactionHistory() {
+        if (historyStore != null) {
+            return historyStore.history(this);
+        }
+        if (transactionHistory == null) {
+            transactionHistory = new TransactionLog();
+        }
+        return transactionHistory;
+    }
+
+    // dailySpent and monthlySpent count debit card spending on spentDay and in its month. A new
+    // day or month needs no reset job: the counters read as zero from then on and restart with
+    // the next payment. Counters from before spentDay was kept read as zero too.
+    public long getDailySpent(long today) {
+        return Math.max(today, spentDay) == spentDay ? dailySpent : 0;
+    }
+
+    public long getMonthlySpent(long today) {
+        return spentDay != 0 && monthOf(Math.max(today, spentDay)) == monthOf(spentDay) ? monthlySpent : 0;
+    }
+
+    public void addSpending(long today, long amount) {
+        today = Math.max(today, spentDay);
+        if (today != spentDay) {
+            monthlySpent = getMonthlySpent(today);
+            dailySpent = 0;
+            spentDay = today;
+        }
+        dailySpent += amount;
+        monthlySpent += amount;
+    }
+
+    private static int monthOf(long epochDay) {
+        java.time.LocalDate date = java.time.LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue();
+    }
+
+    public long getAvailableCredit() {
+        return creditLimit - creditUsed;
+    }
+
+    
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(username).append(",").append(password).append(",").append(Money.format(balance)).append(",")
+                .append(Money.format(fdBalance)).append(",");
+        sb.append(debitCardNumber).append(",").append(debitCVV).append(",").append(debitExpiryDate).append(",")
+                .append(debitCardType).append(",");
+        sb.append(debitPIN != null ? debitPIN : generatePIN()).append(",");
+        sb.append(tapToPayEnabled).append(",").append(Money.format(monthlySpendingLimit)).append(",")
+                .append(Money.format(dailySpendingLimit)).append(",");
+        sb.append(Money.format(monthlySpent)).append(",").append(Money.format(dailySpent)).append(",");
+        sb.append(creditCardNumber).append(",").append(creditCVV).append(",").append(creditExpiryDate).append(",");
+        sb.append(creditPIN != null ? creditPIN : generatePIN()).append(",");
+        sb.append(Money.format(creditLimit)).append(",").append(Money.format(creditUsed)).append(",")
+                .append(pendingEMIs).append(",")
+                .append(cibilScore);
+
+        // Add transaction count
+        TransactionLog history = getTransactionHistory();
+        sb.append(",").append(history.size());
+        for (Transaction t : history) {
+            sb.append(",").append(t.toString().replace(",", ";;"));
+        }
+
+        return sb.toString();
+    }
+}
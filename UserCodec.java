@@ -0,0 +1,507 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Binary snapshot format.
+//
+// File:        magic "BOMU" (int), version (short), lsn (long), history length (long),
+//              user count (int), records...
+// Record:      length (int), then the User fields in declaration order, the day FD interest
+//              was credited up to (long), the day of the last debit card spend (long), the
+//              monthly totals, then the history: head offset (long) and count (int) in the
+//              HistoryStore file, or INLINE followed by a varint count and the transactions
+// Numerics:    fixed width, big endian (long 8, int 4, boolean 1); amounts are long paise
+// Strings:     varint (length + 1, 0 means null) followed by UTF-8 bytes
+// Transaction: type, amount, epoch millis (Long.MIN_VALUE + raw string if the date does not
+//              parse), description, card type
+// Totals:      varint month count, then per month the key (int, year * 12 + month - 1), a
+//              varint entry count and per entry type, card type, varint count and sum (long)
+//
+//   java UserCodec bank_users.txt bank_users.dat   converts a legacy text file
+class UserCodec {
+    static final int MAGIC = 0x424F4D55;
+    static final short VERSION = 1;
+    static final long INLINE = -2; // history stored in the record, as convertLegacy() writes it
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // ---------------------- SNAPSHOT FILES ----------------------
+    // What a snapshot covers: the journal up to lsn and the history file up to historyLength
+    static class Header {
+        final long lsn;
+        final long historyLength;
+
+        Header(long lsn, long historyLength) {
+            this.lsn = lsn;
+            this.historyLength = historyLength;
+        }
+    }
+
+    static void writeSnapshot(File file, long lsn, long historyLength, List<byte[]> records) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(lsn);
+            out.writeLong(historyLength);
+            out.writeInt(records.size());
+            for (byte[] record : records) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+            out.flush();
+            fos.getChannel().force(false);
+        }
+    }
+
+    // Reads a binary snapshot into users and returns the journal and history positions it covers
+    static Header readSnapshot(File file, Map<String, User> users) throws IOException {
+        return readSnapshot(file, users, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    // The length prefixes are walked once to find every record, then runs of records are
+    // decoded on a fork-join pool and the results merged into users in file order.
+    static Header readSnapshot(File file, Map<String, User> users, int threads, LoadPhases phases)
+            throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath())) {
+            if (ch.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is larger than 2 GB");
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC)
+                throw new IOException(file + " is not a binary users file");
+            short version = buf.getShort();
+            if (version != VERSION)
+                throw new IOException("Unsupported users file version " + version);
+            long lsn = buf.getLong();
+            long historyLength = buf.getLong();
+            int count = buf.getInt();
+
+            int[] offsets = new int[count];
+            int pos = buf.position();
+            for (int i = 0; i < count; i++) {
+                offsets[i] = pos + 4;
+                pos = offsets[i] + buf.getInt(pos);
+            }
+            if (phases != null)
+                phases.mark("index");
+
+            User[] decoded = new User[count];
+            int chunks = Math.max(1, Math.min(count, threads * 8));
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c -> {
+                    ByteBuffer b = buf.duplicate();
+                    int end = (int) ((long) count * (c + 1) / chunks);
+                    for (int i = (int) ((long) count * c / chunks); i < end; i++) {
+                        b.position(offsets[i]);
+                        decoded[i] = decode(b);
+                    }
+                })).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Failed decoding " + file, e);
+            } finally {
+                pool.shutdown();
+            }
+            if (phases != null)
+                phases.mark("parse");
+
+            for (User u : decoded) {
+                users.put(u.username, u);
+            }
+            if (phases != null)
+                phases.mark("merge");
+            return new Header(lsn, historyLength);
+        }
+    }
+
+    static boolean isBinary(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Converts a text file in any of the layouts loadUsers() understands (4, 20, 22+ fields)
+    static void convertLegacy(File text, File binary) throws IOException {
+        HashMap<String, User> users = new HashMap<>();
+        Snapshotter.readLegacySnapshot(text, users);
+        ArrayList<byte[]> records = new ArrayList<>(users.size());
+        for (User u : users.values()) {
+            records.add(encode(u));
+        }
+        writeSnapshot(binary, 0, 0, records);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java UserCodec <legacy text file> <binary file>");
+            return;
+        }
+        convertLegacy(new File(args[0]), new File(args[1]));
+    }
+
+    // ---------------------- RECORDS ----------------------
+    static byte[] encode(User u) {
+        RecordWriter out = new RecordWriter(256);
+        out.putString(u.username);
+        out.putString(u.password);
+        out.putLong(u.balance);
+        out.putLong(u.fdBalance);
+
+        out.putString(u.debitCardNumber);
+        out.putString(u.debitCVV);
+        out.putString(u.debitExpiryDate);
+        out.putString(u.debitCardType);
+        out.putString(u.debitPIN);
+        out.putBoolean(u.tapToPayEnabled);
+        out.putLong(u.monthlySpendingLimit);
+        out.putLong(u.dailySpendingLimit);
+        out.putLong(u.monthlySpent);
+        out.putLong(u.dailySpent);
+
+        out.putString(u.creditCardNumber);
+        out.putString(u.creditCVV);
+        out.putString(u.creditExpiryDate);
+        out.putString(u.creditPIN);
+        out.putLong(u.creditLimit);
+        out.putLong(u.creditUsed);
+        out.putInt(u.pendingEMIs);
+        out.putInt(u.cibilScore);
+        out.putLong(u.interestAccruedTo);
+        out.putLong(u.spentDay);
+        writeTotals(out, u.monthlyTotals);
+
+        if (u.historyStore != null) {
+            out.putLong(u.historyHead);
+            out.putInt(u.historyCount);
+            return out.toByteArray();
+        }
+        out.putLong(INLINE);
+        TransactionLog history = u.transactionHistory;
+        int count = history != null ? history.size() : 0;
+        out.putVarint(count);
+        for (int i = 0; i < count; i++) {
+            writeTransaction(out, history, i);
+        }
+        return out.toByteArray();
+    }
+
+    static User decode(ByteBuffer buf) {
+        String username = readString(buf);
+        String password = readString(buf);
+        long balance = buf.getLong();
+        long fdBalance = buf.getLong();
+
+        String debitCardNumber = readString(buf);
+        String debitCVV = readString(buf);
+        String debitExpiryDate = readString(buf);
+        String debitCardType = readString(buf);
+        String debitPIN = readString(buf);
+        boolean tapToPayEnabled = buf.get() != 0;
+        long monthlySpendingLimit = buf.getLong();
+        long dailySpendingLimit = buf.getLong();
+        long monthlySpent = buf.getLong();
+        long dailySpent = buf.getLong();
+
+        String creditCardNumber = readString(buf);
+        String creditCVV = readString(buf);
+        String creditExpiryDate = readString(buf);
+        String creditPIN = readString(buf);
+        long creditLimit = buf.getLong();
+        long creditUsed = buf.getLong();
+        int pendingEMIs = buf.getInt();
+        int cibilScore = buf.getInt();
+        long interestAccruedTo = buf.getLong();
+        long spentDay = buf.getLong();
+        MonthlyTotals totals = readTotals(buf);
+
+        long historyHead = buf.getLong();
+        int historyCount = 0;
+        TransactionLog history;
+        if (historyHead == INLINE) {
+            int count = readVarint(buf);
+            history = new TransactionLog(count);
+            for (int i = 0; i < count; i++) {
+                readTransaction(buf, history);
+            }
+        } else {
+            // Left in the HistoryStore until somebody asks for it
+            historyCount = buf.getInt();
+            history = new TransactionLog();
+        }
+
+        User u = new User(username, password, balance, fdBalance,
+                debitCardNumber, debitCVV, debitExpiryDate, debitCardType,
+                debitPIN, tapToPayEnabled, monthlySpendingLimit, dailySpendingLimit,
+                monthlySpent, dailySpent,
+                creditCardNumber, creditCVV, creditExpiryDate, creditPIN,
+                creditLimit, creditUsed, pendingEMIs, cibilScore,
+                history);
+        if (historyHead != INLINE) {
+            u.historyHead = historyHead;
+            u.historyCount = historyCount;
+        }
+        u.interestAccruedTo = interestAccruedTo;
+        u.spentDay = spentDay;
+        u.monthlyTotals = totals;
+        return u;
+    }
+
+    static void writeTransaction(RecordWriter out, Transaction t) {
+        out.putString(t.type);
+        out.putLong(t.amount);
+        long millis = toEpochMillis(t.date);
+        out.putLong(millis);
+        if (millis == Long.MIN_VALUE)
+            out.putString(t.date);
+        out.putString(t.description);
+        out.putString(t.cardType);
+    }
+
+    // Straight from the columns, without building a Transaction or formatting its date
+    static void writeTransaction(RecordWriter out, TransactionLog log, int i) {
+        out.putString(log.type(i));
+        out.putLong(log.amount(i));
+        long millis = log.time(i);
+        out.putLong(millis);
+        if (millis == Long.MIN_VALUE)
+            out.putString(log.date(i));
+        out.putString(log.description(i));
+        out.putString(log.cardType(i));
+    }
+
+    static Transaction readTransaction(ByteBuffer buf) {
+        String type = readString(buf);
+        long amount = buf.getLong();
+        long millis = buf.getLong();
+        String date = millis == Long.MIN_VALUE ? readString(buf) : fromEpochMillis(millis);
+        String description = readString(buf);
+        String cardType = readString(buf);
+        return new Transaction(type, amount, date, description, cardType);
+    }
+
+    // Epoch millis of the transaction at buf's position (Long.MIN_VALUE if its date is text),
+    // without decoding the rest of it; moves the position
+    static long transactionTime(ByteBuffer buf) {
+        int typeLength = readVarint(buf) - 1;
+        buf.position(buf.position() + Math.max(typeLength, 0) + 8);
+        return buf.getLong();
+    }
+
+    // Appends the transaction to log, keeping the time as millis
+    static void readTransaction(ByteBuffer buf, TransactionLog log) {
+        String type = readString(buf);
+        long amount = buf.getLong();
+        long millis = buf.getLong();
+        String date = millis == Long.MIN_VALUE ? readString(buf) : null;
+        String description = readString(buf);
+        String cardType = readString(buf);
+        log.add(type, amount, millis, date, description, cardType);
+    }
+
+    static void writeTotals(RecordWriter out, MonthlyTotals totals) {
+        out.putVarint(totals.size());
+        for (int i = 0; i < totals.size(); i++) {
+            MonthlyTotals.Month m = totals.month(i);
+            out.putInt(m.key);
+            out.putVarint(m.entries());
+            for (int e = 0; e < m.entries(); e++) {
+                out.putString(m.type(e));
+                out.putString(m.cardType(e));
+                out.putVarint(m.count(e));
+                out.putLong(m.sum(e));
+            }
+        }
+    }
+
+    static MonthlyTotals readTotals(ByteBuffer buf) {
+        int months = readVarint(buf);
+        MonthlyTotals totals = new MonthlyTotals();
+        for (int i = 0; i < months; i++) {
+            int key = buf.getInt();
+            int entries = readVarint(buf);
+            for (int e = 0; e < entries; e++) {
+                String type = readString(buf);
+                String cardType = readString(buf);
+                int count = readVarint(buf);
+                totals.add(key, type, cardType, count, buf.getLong());
+            }
+        }
+        return totals;
+    }
+
+    // ---------------------- DATES ----------------------
+    // Transaction dates are always "dd/MM/yyyy HH:mm:ss"; they are picked apart by position
+    // because DateTimeFormatter dominated the whole encode/decode cost.
+    static long toEpochMillis(String date) {
+        if (date == null || date.length() != 19)
+            return Long.MIN_VALUE;
+        int day = digits(date, 0, 2);
+        int month = digits(date, 3, 2);
+        int year = digits(date, 6, 4);
+        int hour = digits(date, 11, 2);
+        int minute = digits(date, 14, 2);
+        int second = digits(date, 17, 2);
+        if (day < 0 || month < 0 || year < 0 || hour < 0 || minute < 0 || second < 0)
+            return Long.MIN_VALUE;
+        try {
+            long millis = LocalDateTime.of(year, month, day, hour, minute, second).atZone(ZONE).toInstant()
+                    .toEpochMilli();
+            // Local times inside a DST gap do not round-trip; keep those as text
+            return fromEpochMillis(millis).equals(date) ? millis : Long.MIN_VALUE;
+        } catch (java.time.DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    static String fromEpochMillis(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(millis), ZONE);
+        char[] c = new char[19];
+        putDigits(c, 0, 2, t.getDayOfMonth());
+        c[2] = '/';
+        putDigits(c, 3, 2, t.getMonthValue());
+        c[5] = '/';
+        putDigits(c, 6, 4, t.getYear());
+        c[10] = ' ';
+        putDigits(c, 11, 2, t.getHour());
+        c[13] = ':';
+        putDigits(c, 14, 2, t.getMinute());
+        c[16] = ':';
+        putDigits(c, 17, 2, t.getSecond());
+        return new String(c);
+    }
+
+    private static int digits(String s, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9')
+                return -1;
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    private static void putDigits(char[] c, int from, int count, int value) {
+        for (int i = from + count - 1; i >= from; i--) {
+            c[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    // ---------------------- PRIMITIVES ----------------------
+    private static String readString(ByteBuffer buf) {
+        int length = readVarint(buf) - 1;
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readVarint(ByteBuffer buf) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // Growable big-endian byte buffer; avoids the per-byte synchronized writes of
+    // DataOutputStream over ByteArrayOutputStream.
+    static class RecordWriter {
+        private byte[] buf;
+        private int pos;
+
+        RecordWriter(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void putBoolean(boolean v) {
+            ensure(1);
+            buf[pos++] = (byte) (v ? 1 : 0);
+        }
+
+        void putInt(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void putLong(long v) {
+            putInt((int) (v >>> 32));
+            putInt((int) v);
+        }
+
+        void putVarint(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void putString(String s) {
+            if (s == null) {
+                putVarint(0);
+                return;
+            }
+            int n = s.length();
+            boolean ascii = true;
+            for (int i = 0; i < n && ascii; i++) {
+                ascii = s.charAt(i) < 0x80;
+            }
+            if (ascii) {
+                putVarint(n + 1);
+                ensure(n);
+                for (int i = 0; i < n; i++) {
+                    buf[pos++] = (byte) s.charAt(i);
+                }
+            } else {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                putVarint(bytes.length + 1);
+                ensure(bytes.length);
+                System.arraycopy(bytes, 0, buf, pos, bytes.length);
+                pos += bytes.length;
+            }
+        }
+
+        // Overwrites 4 bytes already written, e.g. a length prefix
+        void putInt(int at, int v) {
+            buf[at] = (byte) (v >>> 24);
+            buf[at + 1] = (byte) (v >>> 16);
+            buf[at + 2] = (byte) (v >>> 8);
+            buf[at + 3] = (byte) v;
+        }
+
+        int size() {
+            return pos;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+// Synthetic bank populations and operation streams for sizing hardware. Everything follows
+// from the seed: the accounts with their card details and histories, and each client
+// thread's sequence of operations, so a run can be repeated exactly against a new build or
+// a new machine. With one thread the final balances are identical too (see the digest).
+//
+//   java WorkloadGenerator [accounts] [operations per thread] [threads] [seed]
+//
+//   -Dworkload.mix=deposit:35,withdraw:25,fdTransfer:8,fdWithdraw:7,card:25   relative weights
+//   -Dworkload.skew=S        Zipf exponent for choosing accounts; 0 is uniform, around 1 puts
+//                            most traffic on a small set of hot accounts (default 1.0)
+//   -Dworkload.history=N     mean transactions per account to start with (default 20)
+//   -Dworkload.durable=false do not wait for each operation to be on disk
+//
+// Defaults to 10000 accounts, 20000 operations on each of 8 threads and seed 42. The accounts
+// are written to bench_data/workload as a fresh snapshot for every run.
+class WorkloadGenerator {
+    static final int DEPOSIT = 0, WITHDRAW = 1, FD_TRANSFER = 2, FD_WITHDRAW = 3, CARD = 4;
+    static final String[] KINDS = { "deposit", "withdraw", "fdTransfer", "fdWithdraw", "card" };
+    // Median amounts in paise for each kind; amounts are log-normal around them
+    private static final long[] MEDIANS = { 200000, 100000, 500000, 300000, 50000 };
+    // Per-thread allocation counters, where the JVM has them
+    private static final com.sun.management.ThreadMXBean THREADS = ManagementFactory
+            .getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()
+                    : null;
+
+    final long seed;
+    final int accountCount;
+    private final double[] mix = new double[KINDS.length]; // cumulative, ends at 1
+    private final double[] popularity; // cumulative Zipf weights by rank
+    private final int[] accountOfRank; // rank 0 is the hottest account
+
+    WorkloadGenerator(long seed, int accountCount, String mixSpec, double skew) {
+        this.seed = seed;
+        this.accountCount = accountCount;
+
+        double[] weights = new double[KINDS.length];
+        for (String part : mixSpec.split(",")) {
+            String[] kv = part.split(":");
+            int kind = Arrays.asList(KINDS).indexOf(kv[0].trim());
+            if (kv.length != 2 || kind < 0)
+                throw new IllegalArgumentException("Bad workload mix entry: " + part);
+            weights[kind] = Double.parseDouble(kv[1]);
+        }
+        double total = Arrays.stream(weights).sum();
+        double sum = 0;
+        for (int i = 0; i < KINDS.length; i++) {
+            sum += weights[i] / total;
+            mix[i] = sum;
+        }
+
+        popularity = new double[accountCount];
+        sum = 0;
+        for (int rank = 0; rank < accountCount; rank++) {
+            sum += 1 / Math.pow(rank + 1, skew);
+            popularity[rank] = sum;
+        }
+        for (int rank = 0; rank < accountCount; rank++) {
+            popularity[rank] /= sum;
+        }
+        // Hot accounts are scattered over the population rather than being user0, user1, ...
+        accountOfRank = new int[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountOfRank[i] = i;
+        }
+        Random shuffle = new Random(seed);
+        for (int i = accountCount - 1; i > 0; i--) {
+            int j = shuffle.nextInt(i + 1);
+            int t = accountOfRank[i];
+            accountOfRank[i] = accountOfRank[j];
+            accountOfRank[j] = t;
+        }
+    }
+
+    static String username(int account) {
+        return "load" + account;
+    }
+
+    // ---------------------- POPULATION ----------------------
+    // Accounts as the loading constructor would rebuild them, with card details and a history
+    // spread over the last year, all drawn from the seed
+    HashMap<String, User> population(int meanHistory, LocalDate today) {
+        HashMap<String, User> users = new HashMap<>();
+        Random rand = new Random(seed ^ 0x5DEECE66DL);
+        String[] networks = { "Visa", "Master", "RuPay" };
+        ZoneId zone = ZoneId.systemDefault();
+        long end = today.atStartOfDay(zone).toInstant().toEpochMilli();
+        long start = today.minusYears(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        for (int i = 0; i < accountCount; i++) {
+            int length = meanHistory > 0 ? rand.nextInt(2 * meanHistory + 1) : 0;
+            TransactionLog history = new TransactionLog(length);
+            long[] times = new long[length];
+            for (int j = 0; j < length; j++) {
+                times[j] = start + (long) (rand.nextDouble() * (end - start));
+            }
+            Arrays.sort(times);
+            for (long time : times) {
+                int kind = kind(rand);
+                String type = kind == CARD ? "Card_Payment"
+                        : new String[] { "Deposit", "Withdraw", "FD_Transfer", "FD_Withdraw" }[kind];
+                history.add(new Transaction(type, amount(rand, kind), UserCodec.fromEpochMillis(time),
+                        kind == CARD ? "Payment via Debit Card" : "Synthetic " + type, kind == CARD ? "Debit" : ""));
+            }
+
+            User u = new User(username(i), "pw" + i, amount(rand, DEPOSIT) * 20, amount(rand, FD_TRANSFER) * 4,
+                    digits(rand, 16), digits(rand, 3), expiry(rand), networks[rand.nextInt(networks.length)],
+                    digits(rand, 4), rand.nextInt(10) < 8, Money.ofRupees(100000), Money.ofRupees(50000), 0, 0,
+                    digits(rand, 16), digits(rand, 3), expiry(rand), digits(rand, 4),
+                    Money.ofRupees(50000), 0, 0, 650 + rand.nextInt(200), history);
+            u.interestAccruedTo = today.toEpochDay();
+            users.put(u.username, u);
+        }
+        return users;
+    }
+
+    private static String digits(Random rand, int count) {
+        char[] c = new char[count];
+        for (int i = 0; i < count; i++) {
+            c[i] = (char) ('0' + rand.nextInt(10));
+        }
+        if (count == 16)
+            return new String(c, 0, 4) + " " + new String(c, 4, 4) + " " + new String(c, 8, 4) + " "
+                    + new String(c, 12, 4);
+        return new String(c);
+    }
+
+    private static String expiry(Random rand) {
+        return String.format("%02d/%d", rand.nextInt(12) + 1, 2027 + rand.nextInt(5));
+    }
+
+    // ---------------------- OPERATIONS ----------------------
+    // The stream of one client thread; the same seed and thread give the same operations
+    class Stream {
+        private final Random rand;
+        int kind;
+        int account;
+        long amount;
+
+        Stream(int thread) {
+            rand = new Random(seed * 1_000_003L + thread);
+        }
+
+        void next() {
+            kind = kind(rand);
+            int rank = Arrays.binarySearch(popularity, rand.nextDouble());
+            account = accountOfRank[Math.min(rank >= 0 ? rank : -rank - 1, accountCount - 1)];
+            amount = amount(rand, kind);
+        }
+    }
+
+    private int kind(Random rand) {
+        double r = rand.nextDouble();
+        for (int i = 0; i < mix.length - 1; i++) {
+            if (r < mix[i])
+                return i;
+        }
+        return mix.length - 1;
+    }
+
+    private static long amount(Random rand, int kind) {
+        return Math.max(100, Math.round(MEDIANS[kind] * Math.exp(rand.nextGaussian())));
+    }
+
+    // ---------------------- REPLAY ----------------------
+    static class Report {
+        long[] latencies; // nanoseconds, sorted
+        long refused;
+        long elapsedNanos;
+        long allocatedBytes; // by the client and engine threads during the run, -1 if not measurable
+        long digest;
+
+        double percentileMicros(double p) {
+            if (latencies.length == 0)
+                return 0;
+            int i = (int) Math.ceil(p / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(i, latencies.length - 1))] / 1e3;
+        }
+
+        void print() {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%,d operations (%,d refused) in %.2f s: %,.0f ops/s%n", latencies.length, refused,
+                    seconds, latencies.length / seconds);
+            System.out.printf("latency us: p50 %.0f, p90 %.0f, p99 %.0f, p99.9 %.0f, max %.0f%n",
+                    percentileMicros(50), percentileMicros(90), percentileMicros(99), percentileMicros(99.9),
+                    percentileMicros(100));
+            if (allocatedBytes >= 0)
+                System.out.printf("allocation: %,.1f MB/s, %,d bytes/op%n", allocatedBytes / seconds / 1e6,
+                        allocatedBytes / Math.max(1, latencies.length));
+            System.out.printf("state digest: %016x%n", digest);
+        }
+    }
+
+    // Each thread plays its own stream against engine, one operation at a time
+    Report replay(BankEngine engine, int threadCount, int opsPerThread, boolean durable) throws InterruptedException {
+        User[] accounts = new User[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accounts[i] = engine.find(username(i));
+        }
+
+        long[][] latencies = new long[threadCount][opsPerThread];
+        long[] refused = new long[threadCount];
+        long[] allocated = new long[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                Stream ops = new Stream(id);
+                BankEngine.CardPayment card = new BankEngine.CardPayment();
+                long allocatedBefore = THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+                for (int i = 0; i < opsPerThread; i++) {
+                    ops.next();
+                    User u = accounts[ops.account];
+                    long begin = System.nanoTime();
+                    BankEngine.Result r;
+                    switch (ops.kind) {
+                        case DEPOSIT:
+                            r = engine.deposit(u, ops.amount);
+                            break;
+                        case WITHDRAW:
+                            r = engine.withdraw(u, ops.amount);
+                            break;
+                        case FD_TRANSFER:
+                            r = engine.transferToFD(u, ops.amount);
+                            break;
+                        case FD_WITHDRAW:
+                            r = engine.withdrawFromFD(u, ops.amount);
+                            break;
+                        default:
+                            card.cardNumber = u.debitCardNumber;
+                            card.cvv = u.debitCVV;
+                            card.expiryDate = u.debitExpiryDate;
+                            card.pin = u.debitPIN;
+                            card.amount = ops.amount;
+                            r = engine.payWithCard(u, card);
+                    }
+                    CompletableFuture<Long> done = r.durable;
+                    if (durable && done != null)
+                        done.join();
+                    latencies[id][i] = System.nanoTime() - begin;
+                    if (!r.ok)
+                        refused[id]++;
+                }
+                if (THREADS != null)
+                    allocated[id] = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            }, "workload-" + t);
+        }
+
+        // The engine's own threads (group commit, snapshots) allocate on the clients' behalf
+        long[] engineThreads = ManagementFactory.getThreadMXBean().getAllThreadIds();
+        long[] engineBefore = THREADS != null ? THREADS.getThreadAllocatedBytes(engineThreads) : null;
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Report report = new Report();
+        report.elapsedNanos = System.nanoTime() - start;
+        report.allocatedBytes = -1;
+        if (THREADS != null) {
+            long[] engineAfter = THREADS.getThreadAllocatedBytes(engineThreads);
+            report.allocatedBytes = Arrays.stream(allocated).sum();
+            for (int i = 0; i < engineThreads.length; i++) {
+                if (engineBefore[i] >= 0 && engineAfter[i] >= 0)
+                    report.allocatedBytes += engineAfter[i] - engineBefore[i];
+            }
+        }
+
+        report.latencies = new long[threadCount * opsPerThread];
+        for (int t = 0; t < threadCount; t++) {
+            System.arraycopy(latencies[t], 0, report.latencies, t * opsPerThread, opsPerThread);
+            report.refused += refused[t];
+        }
+        Arrays.sort(report.latencies);
+        report.digest = digest(accounts);
+        return report;
+    }
+
+    private static long digest(User[] accounts) {
+        long h = 1125899906842597L;
+        for (User u : accounts) {
+            h = 31 * h + u.balance;
+            h = 31 * h + u.fdBalance;
+            h = 31 * h + u.monthlySpent;
+            h = 31 * h + u.historyCount;
+        }
+        return h;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int opsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        String mix = System.getProperty("workload.mix", "deposit:35,withdraw:25,fdTransfer:8,fdWithdraw:7,card:25");
+        double skew = Double.parseDouble(System.getProperty("workload.skew", "1.0"));
+        int meanHistory = Integer.getInteger("workload.history", 20);
+        boolean durable = !"false".equals(System.getProperty("workload.durable"));
+
+        // A fixed day, so spending limits and dates do not depend on when the run happens
+        LocalDate today = LocalDate.of(2026, 1, 15);
+        WorkloadGenerator generator = new WorkloadGenerator(seed, accountCount, mix, skew);
+        File dir = new File("bench_data", "workload");
+        dir.mkdirs();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        long start = System.nanoTime();
+        ArrayList<byte[]> records = new ArrayList<>(accountCount);
+        for (User u : generator.population(meanHistory, today).values()) {
+            records.add(UserCodec.encode(u));
+        }
+        UserCodec.writeSnapshot(new File(dir, BankEngine.FILE_NAME), 0, 0, records);
+        records = null;
+        System.out.printf("%,d accounts generated in %d ms (seed %d, mix %s, skew %.2f)%n", accountCount,
+                (System.nanoTime() - start) / 1_000_000, seed, mix, skew);
+
+        System.setProperty("bank.interest.checkMinutes", "0");
+        BankEngine engine = new BankEngine(dir);
+        engine.clock = Clock.fixed(today.atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant(),
+                ZoneId.systemDefault());
+        engine.open();
+        generator.replay(engine, threads, opsPerThread, durable).print();
+        engine.close();
+    }
+}